@@ -0,0 +1,78 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.TimeZone;
+
+/**
+ * {@link AlternativeExecutionScheduler} computes deadlines when a trigger starts, when a deadline fires
+ * and when Triglav triggers a build, instead of on every polling of every job.
+ */
+@State(Scope.Benchmark)
+public class AlternativeExecutionTimeBenchmark
+{
+    private AlternativeExecutionTime.HourMinutes daily;
+    private AlternativeExecutionTime.HourMinutes hourly;
+    private TimeZone zone;
+    private long now;
+
+    @Setup
+    public void setup()
+    {
+        daily = AlternativeExecutionTime.parseHourMinutes("10:30");
+        hourly = AlternativeExecutionTime.parseHourMinutes("30");
+        zone = TimeZone.getTimeZone("Asia/Tokyo");
+        now = System.currentTimeMillis();
+    }
+
+    /**
+     * What constructing or loading a trigger does with {@link TriggerConfigSnapshot}.
+     */
+    @Benchmark
+    public AlternativeExecutionTime.HourMinutes parseHourMinutes()
+    {
+        return AlternativeExecutionTime.parseHourMinutes("10:30");
+    }
+
+    @Benchmark
+    public AlternativeExecutionTime.HourMinutes parseInvalid()
+    {
+        return AlternativeExecutionTime.parseHourMinutes("");
+    }
+
+    /**
+     * What starting a trigger does.
+     */
+    @Benchmark
+    public long currentDeadlineDaily()
+    {
+        return AlternativeExecutionTime.currentDeadlineMillis(daily, zone, now);
+    }
+
+    /**
+     * What a fired deadline or a build triggered by Triglav does.
+     */
+    @Benchmark
+    public long nextDeadlineDaily()
+    {
+        return AlternativeExecutionTime.nextDeadlineMillis(daily, zone, now);
+    }
+
+    @Benchmark
+    public long nextDeadlineHourly()
+    {
+        return AlternativeExecutionTime.nextDeadlineMillis(hourly, zone, now);
+    }
+
+    /**
+     * What a fired deadline does before looking up the last build.
+     */
+    @Benchmark
+    public long periodStartDaily()
+    {
+        return AlternativeExecutionTime.periodStartMillis(TimeUnit.DAILY, zone, now);
+    }
+}
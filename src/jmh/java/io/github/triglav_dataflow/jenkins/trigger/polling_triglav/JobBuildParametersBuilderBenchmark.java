@@ -0,0 +1,32 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.ImmutableMap;
+import hudson.model.ParameterValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class JobBuildParametersBuilderBenchmark
+{
+    private ImmutableMap<String, String> message;
+
+    @Setup
+    public void setup()
+    {
+        message = ImmutableMap.of(
+                "TRIGLAV_JOB_MESSAGE_ID", "123456789",
+                "TRIGLAV_JOB_MESSAGE_TIME", "1491955200",
+                "TRIGLAV_JOB_MESSAGE_TIMEZONE", "+09:00",
+                "TRIGLAV_JOB_ID", "12345");
+    }
+
+    @Benchmark
+    public List<ParameterValue> build()
+    {
+        return new JobBuildParametersBuilder(message).build();
+    }
+}
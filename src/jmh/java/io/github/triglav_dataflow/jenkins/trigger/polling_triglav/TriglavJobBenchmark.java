@@ -0,0 +1,77 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import hudson.model.ParameterValue;
+import io.github.triglav_dataflow.client.JobMessageEachResponse;
+import io.github.triglav_dataflow.client.ResourceRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Jenkins-free parts of {@link TriglavJob}.
+ * <p>
+ * {@link ItemRunnable#run()} needs a running Jenkins for the job and the trigger descriptor,
+ * so its polling path is measured from the messages a stub Triglav would return:
+ * converting them into build parameters as {@link TriglavJob#poll} and {@link ItemRunnable} do.
+ */
+@State(Scope.Benchmark)
+public class TriglavJobBenchmark
+{
+    @Param({"1", "10"})
+    public int numResources;
+
+    @Param({"1", "100"})
+    public int numMessages;
+
+    private List<TriglavResourceConfig> resourceConfigs;
+    private List<JobMessageEachResponse> messages;
+
+    @Setup
+    public void setup()
+    {
+        resourceConfigs = Lists.newArrayList();
+        for (int i = 0; i < numResources; i++) {
+            resourceConfigs.add(new TriglavResourceConfig(i % 2 == 0 ? "" : String.valueOf(i), "hdfs://example.com/path/to/%Y%m%d/" + i));
+        }
+        messages = Lists.newArrayList();
+        for (int i = 0; i < numMessages; i++) {
+            JobMessageEachResponse m = new JobMessageEachResponse();
+            m.setId(1000000L + i);
+            m.setJobId(12345L);
+            m.setTime(1491955200L + i * 3600L);
+            m.setTimezone("+09:00");
+            messages.add(m);
+        }
+    }
+
+    /**
+     * The resource mapping done by {@link TriglavJob#registerOrUpdate}. The result is iterated
+     * as the client serializes it.
+     */
+    @Benchmark
+    public void resourceRequests(Blackhole bh)
+    {
+        List<ResourceRequest> requests = TriglavJob.resourceRequests(
+                resourceConfigs, "+09:00", TimeUnit.DAILY, 32L, true, false);
+        for (ResourceRequest rr : requests) {
+            bh.consume(rr);
+        }
+    }
+
+    @Benchmark
+    public void pollingPath(Blackhole bh)
+    {
+        for (JobMessageEachResponse m : messages) {
+            ImmutableMap<String, String> message = TriglavJob.toBuildParameters(m);
+            List<ParameterValue> buildParameters = new JobBuildParametersBuilder(message).build();
+            bh.consume(new TriglavTriggeredCause(buildParameters));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link ZoneIDConverter#toThreeLetterISO8601} is what {@link PollingTriglavTrigger.Parameters#timeZone()} does.
+ */
+@State(Scope.Benchmark)
+public class ZoneIDConverterBenchmark
+{
+    @Param({"Asia/Tokyo", "America/Los_Angeles", "UTC"})
+    public String zoneId;
+
+    @Benchmark
+    public String toThreeLetterISO8601()
+    {
+        return ZoneIDConverter.toThreeLetterISO8601(zoneId);
+    }
+}
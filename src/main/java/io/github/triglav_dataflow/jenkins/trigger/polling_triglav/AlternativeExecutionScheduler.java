@@ -0,0 +1,190 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.model.BuildableItem;
+import hudson.model.Cause;
+
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Builds jobs at their alternativeExecutionTime if Triglav has not triggered them in the period.
+ * <p>
+ * Each started trigger has one deadline on {@link jenkins.util.Timer}, which keeps deadlines ordered,
+ * so only triggers whose deadline has come are evaluated instead of every job on every tick.
+ * A build triggered by Triglav moves the deadline of the period forward.
+ * Deadlines and periods are evaluated in the time zone of the trigger.
+ */
+public class AlternativeExecutionScheduler
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final long BLOCKED_RETRY_MILLIS = 60L * 1000L;
+    private static final ConcurrentMap<PollingTriglavTrigger, Deadline> deadlines = new ConcurrentHashMap<>();
+
+    private AlternativeExecutionScheduler()
+    {
+    }
+
+    /**
+     * Schedule the deadline of the current period, which fires right away if it has already passed.
+     */
+    public static void start(PollingTriglavTrigger trigger)
+    {
+        TriggerConfigSnapshot config = trigger.config();
+        AlternativeExecutionTime.HourMinutes hourMinutes = config.alternativeExecutionHourMinutes();
+        if (hourMinutes == null || config.timeUnit() == null || TimeUnit.SINGULAR.equals(config.timeUnit())) {
+            // insufficient requirements
+            stop(trigger);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        schedule(trigger, null, AlternativeExecutionTime.currentDeadlineMillis(hourMinutes, config.zone(), now));
+    }
+
+    public static void stop(PollingTriglavTrigger trigger)
+    {
+        Deadline deadline = deadlines.remove(trigger);
+        if (deadline != null) {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Called when Triglav has triggered a build, which satisfies the period of the pending deadline.
+     */
+    public static void onTriglavBuild(PollingTriglavTrigger trigger)
+    {
+        Deadline pending = deadlines.get(trigger);
+        if (pending == null) {
+            return;
+        }
+        TriggerConfigSnapshot config = trigger.config();
+        AlternativeExecutionTime.HourMinutes hourMinutes = config.alternativeExecutionHourMinutes();
+        if (hourMinutes == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long currentDeadline = AlternativeExecutionTime.currentDeadlineMillis(hourMinutes, config.zone(), now);
+        // Replace only the pending deadline, so that a trigger stopped meanwhile is not scheduled again.
+        schedule(trigger, pending, AlternativeExecutionTime.nextDeadlineMillis(hourMinutes, config.zone(), Math.max(now, currentDeadline)));
+    }
+
+    static int size()
+    {
+        return deadlines.size();
+    }
+
+    /**
+     * @param expected the deadline which must still be pending, or null to replace any.
+     */
+    private static void schedule(PollingTriglavTrigger trigger, Deadline expected, long deadlineMillis)
+    {
+        long delay = Math.max(0L, deadlineMillis - System.currentTimeMillis());
+        Deadline deadline = new Deadline(trigger);
+        if (expected != null) {
+            if (!deadlines.replace(trigger, expected, deadline)) {
+                // stopped or rescheduled meanwhile
+                return;
+            }
+            // No-op if it is the deadline being fired.
+            expected.cancel();
+        }
+        else {
+            Deadline previous = deadlines.put(trigger, deadline);
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+        try {
+            deadline.future = jenkins.util.Timer.get().schedule(deadline, delay, java.util.concurrent.TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            deadlines.remove(trigger, deadline);
+            logger.fine(String.format("Alternative execution is not scheduled: %s", e.getMessage()));
+            return;
+        }
+        logger.fine(String.format("Next alternative execution of %s: %s", trigger.job() == null ? null : trigger.job().getFullName(), new Date(deadlineMillis)));
+    }
+
+    private static void fire(PollingTriglavTrigger trigger, Deadline deadline)
+    {
+        if (deadlines.get(trigger) != deadline) {
+            // stopped or rescheduled
+            return;
+        }
+        TriggerConfigSnapshot config = trigger.config();
+        AlternativeExecutionTime.HourMinutes hourMinutes = config.alternativeExecutionHourMinutes();
+        BuildableItem item = trigger.job();
+        if (hourMinutes == null || item == null) {
+            return;
+        }
+        TimeZone zone = config.zone();
+        long now = System.currentTimeMillis();
+        if (isBlank(trigger.parameters().jobId())) {
+            // Not registered to Triglav yet.
+            schedule(trigger, deadline, AlternativeExecutionTime.nextDeadlineMillis(hourMinutes, zone, now));
+            return;
+        }
+        try {
+            JenkinsJob jenkinsJob = new JenkinsJob(item);
+            if (!jenkinsJob.isDisabled() && jenkinsJob.isBuildBlocked()) {
+                logger.fine(String.format("Job: %s is blocked. Check alternative execution again later.", jenkinsJob.name()));
+                schedule(trigger, deadline, now + BLOCKED_RETRY_MILLIS);
+                return;
+            }
+            if (!jenkinsJob.isDisabled() && !isBuiltSince(jenkinsJob, AlternativeExecutionTime.periodStartMillis(config.timeUnit(), zone, now))) {
+                logger.fine(String.format("Enqueue Job %s using alternativeExecutionTime.", jenkinsJob.name()));
+                TriglavMetrics.increment("alternative_execution_builds_total");
+                Cause cause = new AlternativeExecutionTimeTriggeredCause();
+                jenkinsJob.build(cause);
+            }
+        }
+        catch (RuntimeException e) {
+            logger.log(Level.WARNING, String.format("Error in alternative execution of Job: %s, Error: %s", item.getFullName(), e.getMessage()), e);
+        }
+        schedule(trigger, deadline, AlternativeExecutionTime.nextDeadlineMillis(hourMinutes, zone, now));
+    }
+
+    private static final class Deadline
+            implements Runnable
+    {
+        private final PollingTriglavTrigger trigger;
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean isCancelled = false;
+
+        private Deadline(PollingTriglavTrigger trigger)
+        {
+            this.trigger = trigger;
+        }
+
+        @Override
+        public void run()
+        {
+            if (!isCancelled) {
+                fire(trigger, this);
+            }
+        }
+
+        private void cancel()
+        {
+            isCancelled = true;
+            ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    private static boolean isBuiltSince(JenkinsJob jenkinsJob, long periodStartMillis)
+    {
+        Date lastBuildDate = jenkinsJob.getLastBuildDate();
+        return lastBuildDate != null && lastBuildDate.getTime() >= periodStartMillis;
+    }
+}
@@ -2,49 +2,129 @@ package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
+import java.util.logging.Logger;
 
 public class AlternativeExecutionTime
 {
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+
     private AlternativeExecutionTime()
     {
     }
 
-    public static final boolean shouldBuild(Date alternativeExecutionTime, JenkinsJob jenkinsJob, TimeUnit timeUnit)
+    /**
+     * @param alternativeExecutionTimeString "mm" or "HH:mm".
+     * @return null if the value cannot be parsed.
+     */
+    static HourMinutes parseHourMinutes(String alternativeExecutionTimeString)
     {
-        if (TimeUnit.SINGULAR.equals(timeUnit) || null == alternativeExecutionTime) {
-            // insufficient requirements
-            return false;
-        }
+        try {
+            String[] hourMinutes = alternativeExecutionTimeString.split(":");
 
-        if (alternativeExecutionTime.after(new Date())) {
-            // alternativeExecutionTime has not passed
-            return false;
+            if (hourMinutes.length == 1) {
+                return new HourMinutes(HourMinutes.EVERY_HOUR, Integer.parseInt(hourMinutes[0]));
+            }
+            else if (hourMinutes.length == 2) {
+                return new HourMinutes(Integer.parseInt(hourMinutes[0]), Integer.parseInt(hourMinutes[1]));
+            }
+            else {
+                logger.fine(
+                    String.format("Error parsing alternativeExecutionTime: %s", alternativeExecutionTimeString)
+                );
+                return null;
+            }
+        }
+        catch (Exception e) {
+            logger.fine(
+                String.format("Error parsing alternativeExecutionTime: %s, alternativeExecutionTime: %s", e.getMessage(), alternativeExecutionTimeString)
+            );
+            return null;
         }
+    }
 
-        Date lastBuildDate = jenkinsJob.getLastBuildDate();
-        Calendar calendarLastBuild = null;
+    /**
+     * @return the alternativeExecutionTime in the hour (if only minutes are given) or the day of {@code atMillis}
+     * in {@code timeZone}. It may have already passed.
+     */
+    static long currentDeadlineMillis(HourMinutes hourMinutes, TimeZone timeZone, long atMillis)
+    {
+        return hourMinutes.toDate(truncatedCalendar(timeZone, atMillis)).getTime();
+    }
 
-        if (null != lastBuildDate) {
-            calendarLastBuild = Calendar.getInstance();
-            calendarLastBuild.setTime(lastBuildDate);
+    /**
+     * @return the first alternativeExecutionTime after {@code afterMillis} in {@code timeZone}.
+     */
+    static long nextDeadlineMillis(HourMinutes hourMinutes, TimeZone timeZone, long afterMillis)
+    {
+        Calendar calendar = truncatedCalendar(timeZone, afterMillis);
+        hourMinutes.toDate(calendar);
+        while (calendar.getTimeInMillis() <= afterMillis) {
+            calendar.add(hourMinutes.hour() == HourMinutes.EVERY_HOUR ? Calendar.HOUR_OF_DAY : Calendar.DAY_OF_MONTH, 1);
+            hourMinutes.toDate(calendar);
         }
+        return calendar.getTimeInMillis();
+    }
 
-        Calendar calendarCheck = Calendar.getInstance();
-        if (TimeUnit.HOURLY.equals(timeUnit)) {
-            calendarCheck.set(Calendar.MINUTE, 0);
-            calendarCheck.set(Calendar.SECOND, 0);
+    /**
+     * @return the start of the hour (hourly) or the day (daily) of {@code atMillis} in {@code timeZone}.
+     * A build after this satisfies the period.
+     */
+    static long periodStartMillis(TimeUnit timeUnit, TimeZone timeZone, long atMillis)
+    {
+        Calendar calendar = truncatedCalendar(timeZone, atMillis);
+        calendar.set(Calendar.MINUTE, 0);
+        if (TimeUnit.DAILY.equals(timeUnit)) {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
         }
-        else if (TimeUnit.DAILY.equals(timeUnit)) {
-            calendarCheck.set(Calendar.HOUR_OF_DAY, 0);
-            calendarCheck.set(Calendar.MINUTE, 0);
-            calendarCheck.set(Calendar.SECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static Calendar truncatedCalendar(TimeZone timeZone, long atMillis)
+    {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(atMillis);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar;
+    }
+
+    /**
+     * Parsed alternativeExecutionTime. The hour is {@link #EVERY_HOUR} if only minutes are given.
+     */
+    static final class HourMinutes
+    {
+        static final int EVERY_HOUR = -1;
+        private final int hour;
+        private final int minutes;
+
+        HourMinutes(int hour, int minutes)
+        {
+            this.hour = hour;
+            this.minutes = minutes;
+        }
+
+        int hour()
+        {
+            return hour;
         }
 
-        // If last build was before TODAY (daily) or before CURRENT HOUR (hourly), or if there is no build
-        if (null == calendarLastBuild || calendarLastBuild.before(calendarCheck)) {
-            return true;
+        int minutes()
+        {
+            return minutes;
         }
 
-        return false;
+        /**
+         * @param calendar now, which is modified to the alternativeExecutionTime of the same day (or hour).
+         */
+        Date toDate(Calendar calendar)
+        {
+            calendar.set(Calendar.SECOND, 0);
+            if (hour != EVERY_HOUR) {
+                calendar.set(Calendar.HOUR_OF_DAY, hour);
+            }
+            calendar.set(Calendar.MINUTE, minutes);
+            return calendar.getTime();
+        }
     }
 }
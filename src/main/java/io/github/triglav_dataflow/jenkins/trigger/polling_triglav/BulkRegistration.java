@@ -0,0 +1,387 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.model.AbstractProject;
+import io.github.triglav_dataflow.client.ApiException;
+import jenkins.model.Jenkins;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Registers or updates many jobs to Triglav at once, e.g. after importing jobs.
+ * <p>
+ * Each job is claimed from {@link ReconcileQueue} until its result is applied, so that a job is never registered
+ * by both at the same time. Jobs being reconciled are skipped.
+ * Requests are sent by up to Registration Threads threads. The last job message id given to new jobs is
+ * fetched once and shared. Successful results are applied to the triggers, {@link TriggerRegistry} and
+ * {@link JobSaveQueue} in batches of Save Batch Size on the calling thread.
+ * <p>
+ * Runs after all jobs are loaded for the jobs whose trigger was loaded without a Triglav job id,
+ * and from {@link BulkRegistrationLink} for any jobs.
+ */
+public class BulkRegistration
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    /**
+     * Full names of jobs loaded with the trigger but without a Triglav job id.
+     */
+    private static final Set<String> pendingJobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private static volatile Result lastResult;
+
+    private BulkRegistration()
+    {
+    }
+
+    static void addPending(String jobFullName)
+    {
+        pendingJobs.add(jobFullName);
+    }
+
+    public static boolean isRunning()
+    {
+        return isRunning.get();
+    }
+
+    /**
+     * @return the result of the last bulk registration, or null if none has finished yet.
+     */
+    public static Result getLastResult()
+    {
+        return lastResult;
+    }
+
+    /**
+     * Register the pending jobs in background.
+     */
+    static void registerPendingLater()
+    {
+        if (pendingJobs.isEmpty()) {
+            return;
+        }
+        try {
+            jenkins.util.Timer.get().submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    registerPending();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            logger.fine(String.format("Bulk registration is not scheduled: %s", e.getMessage()));
+        }
+    }
+
+    static Result registerPending()
+    {
+        List<String> names = Lists.newArrayList(pendingJobs);
+        pendingJobs.removeAll(names);
+        List<AbstractProject> projects = Lists.newArrayList();
+        for (String name : names) {
+            AbstractProject project = Jenkins.getInstance().getItemByFullName(name, AbstractProject.class);
+            if (project != null) {
+                projects.add(project);
+            }
+        }
+        Result result = register(projects, false);
+        if (result == null) {
+            // Another bulk registration is running; try again next time.
+            pendingJobs.addAll(names);
+        }
+        return result;
+    }
+
+    /**
+     * Walks all items, because jobs which have never been registered are not in {@link TriggerRegistry}.
+     * Only run on demand by an administrator; startup uses {@link #registerPending()}.
+     *
+     * @param includeRegistered update jobs which are already registered to Triglav too.
+     */
+    static Result registerAll(boolean includeRegistered)
+    {
+        return register(Jenkins.getInstance().getAllItems(AbstractProject.class), includeRegistered);
+    }
+
+    /**
+     * @return null if another bulk registration is running.
+     */
+    static Result register(List<AbstractProject> projects, boolean includeRegistered)
+    {
+        if (!isRunning.compareAndSet(false, true)) {
+            logger.info("Bulk registration is already running.");
+            return null;
+        }
+        try {
+            Result result = doRegister(projects, includeRegistered);
+            lastResult = result;
+            logger.info(result.toString());
+            return result;
+        }
+        finally {
+            isRunning.set(false);
+        }
+    }
+
+    private static Result doRegister(List<AbstractProject> projects, boolean includeRegistered)
+    {
+        long startNanos = System.nanoTime();
+        Result result = new Result();
+        List<Target> targets = Lists.newArrayList();
+        for (AbstractProject project : projects) {
+            PollingTriglavTrigger t = (PollingTriglavTrigger) project.getTrigger(PollingTriglavTrigger.class);
+            if (t == null || project.isDisabled()) {
+                continue;
+            }
+            if (!ReconcileQueue.tryClaim(project.getFullName())) {
+                logger.fine(String.format("Skip Job: %s because it is being reconciled.", project.getFullName()));
+                continue;
+            }
+            if (!includeRegistered && !isBlank(t.parameters().jobId())) {
+                ReconcileQueue.release(project.getFullName());
+                continue;
+            }
+            targets.add(new Target(project, t));
+        }
+        try {
+            return registerClaimed(targets, result, startNanos);
+        }
+        finally {
+            for (Target target : targets) {
+                ReconcileQueue.release(target.name());
+            }
+        }
+    }
+
+    private static Result registerClaimed(List<Target> targets, Result result, long startNanos)
+    {
+        if (targets.isEmpty()) {
+            return result.finish(startNanos);
+        }
+
+        Long lastJobMessageId = sharedLastJobMessageId(targets);
+        int batchSize = Math.max(1, PollingTriglavTrigger.getSaveBatchSize());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(PollingTriglavTrigger.getRegistrationThreads(), targets.size())),
+                new ThreadFactoryBuilder().setNameFormat("polling-triglav-registration-%d").setDaemon(true).build());
+        try {
+            CompletionService<Target> completionService = new ExecutorCompletionService<>(executor);
+            for (final Target target : targets) {
+                completionService.submit(new Callable<Target>()
+                {
+                    @Override
+                    public Target call()
+                    {
+                        target.request();
+                        return target;
+                    }
+                });
+            }
+            List<Target> batch = Lists.newArrayListWithCapacity(batchSize);
+            for (int i = 0; i < targets.size(); i++) {
+                Target target = completionService.take().get();
+                if (target.error != null) {
+                    result.addFailure(target.name(), target.error);
+                    ReconcileQueue.release(target.name());
+                    continue;
+                }
+                batch.add(target);
+                if (batch.size() >= batchSize) {
+                    apply(batch, lastJobMessageId, result);
+                    batch.clear();
+                }
+            }
+            apply(batch, lastJobMessageId, result);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Bulk registration is interrupted.");
+        }
+        catch (ExecutionException e) {
+            // Target#request catches everything, so this never happens.
+            logger.log(Level.WARNING, String.format("Bulk registration failed: %s", e.getCause()), e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return result.finish(startNanos);
+    }
+
+    /**
+     * @return null if it cannot be fetched, in which case each new job gets it by itself.
+     */
+    private static Long sharedLastJobMessageId(List<Target> targets)
+    {
+        for (Target target : targets) {
+            if (!isBlank(target.trigger.parameters().jobId())) {
+                continue;
+            }
+            try {
+                return TriglavClient.fromTriggerParameter(target.trigger.parameters()).getLastJobMessageId();
+            }
+            catch (ApiException | RuntimeException e) {
+                logger.log(Level.WARNING, String.format("Failed to get the last job message id: %s", e.getMessage()), e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static void apply(List<Target> batch, Long lastJobMessageId, Result result)
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+        TriggerRegistry registry = TriggerRegistry.get();
+        for (Target target : batch) {
+            try {
+                target.triglavJob.applyRegistration(target.registration, lastJobMessageId);
+            }
+            catch (ApiException | RuntimeException e) {
+                result.addFailure(target.name(), e);
+                ReconcileQueue.release(target.name());
+                continue;
+            }
+            registry.put(target.name(), target.trigger.parameters().jobId());
+            target.jenkinsJob.saveLater();
+            ReconcileQueue.release(target.name());
+            result.addSuccess(target.registration.isNew());
+        }
+        registry.save();
+    }
+
+    private static final class Target
+    {
+        private final AbstractProject project;
+        private final PollingTriglavTrigger trigger;
+        private JenkinsJob jenkinsJob;
+        private TriglavJob triglavJob;
+        private TriglavJob.Registration registration;
+        private Exception error;
+
+        private Target(AbstractProject project, PollingTriglavTrigger trigger)
+        {
+            this.project = project;
+            this.trigger = trigger;
+        }
+
+        private String name()
+        {
+            return project.getFullName();
+        }
+
+        private void request()
+        {
+            try {
+                jenkinsJob = new JenkinsJob(project);
+                triglavJob = new TriglavJob(trigger.parameters(), TriglavClient.fromTriggerParameter(trigger.parameters()));
+                registration = triglavJob.requestRegistration(jenkinsJob);
+            }
+            catch (ApiException | RuntimeException e) {
+                error = e;
+            }
+        }
+    }
+
+    public static final class Result
+    {
+        private int registered = 0;
+        private int updated = 0;
+        private int failed = 0;
+        private final Map<String, String> failures = Maps.newLinkedHashMap();
+        private long elapsedMillis;
+        private Date finishedAt;
+
+        private void addSuccess(boolean isNew)
+        {
+            TriglavMetrics.increment("bulk_registration_jobs_total", "result", isNew ? "registered" : "updated");
+            if (isNew) {
+                registered++;
+            }
+            else {
+                updated++;
+            }
+        }
+
+        private void addFailure(String jobFullName, Exception e)
+        {
+            failed++;
+            TriglavMetrics.increment("bulk_registration_jobs_total", "result", "failed");
+            logger.log(Level.WARNING, String.format("Failed to register Job: %s, Error: %s", jobFullName, e.getMessage()), e);
+            if (failures.size() < MAX_REPORTED_FAILURES) {
+                failures.put(jobFullName, String.valueOf(e.getMessage()));
+            }
+        }
+
+        private Result finish(long startNanos)
+        {
+            elapsedMillis = TriglavMetrics.elapsedMillis(startNanos);
+            finishedAt = new Date();
+            TriglavMetrics.observeMillis("bulk_registration_duration_ms", elapsedMillis);
+            return this;
+        }
+
+        public int getRegistered()
+        {
+            return registered;
+        }
+
+        public int getUpdated()
+        {
+            return updated;
+        }
+
+        public int getFailed()
+        {
+            return failed;
+        }
+
+        /**
+         * @return the first failures: {JenkinsJobFullName, Error}.
+         */
+        public Map<String, String> getFailures()
+        {
+            return ImmutableMap.copyOf(failures);
+        }
+
+        public long getElapsedMillis()
+        {
+            return elapsedMillis;
+        }
+
+        public Date getFinishedAt()
+        {
+            return finishedAt;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Bulk registration: registered %d, updated %d, failed %d jobs in %d ms",
+                    registered, updated, failed, elapsedMillis);
+        }
+    }
+}
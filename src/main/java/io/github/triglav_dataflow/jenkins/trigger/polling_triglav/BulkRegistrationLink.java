@@ -0,0 +1,83 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Management page at {@code /manage/polling-triglav-registration/} to run {@link BulkRegistration}.
+ */
+@Extension
+public class BulkRegistrationLink
+        extends ManagementLink
+{
+    private static final java.util.logging.Logger logger = PollingTriglavTrigger.getLogger();
+
+    @Override
+    public String getIconFileName()
+    {
+        return "refresh.png";
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+        return "Triglav Bulk Registration";
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Register or update jobs with Triglav Polling Trigger to Triglav at once.";
+    }
+
+    @Override
+    public String getUrlName()
+    {
+        return "polling-triglav-registration";
+    }
+
+    public boolean isRunning()
+    {
+        return BulkRegistration.isRunning();
+    }
+
+    public BulkRegistration.Result getLastResult()
+    {
+        return BulkRegistration.getLastResult();
+    }
+
+    public int getRegistrationThreads()
+    {
+        return PollingTriglavTrigger.getRegistrationThreads();
+    }
+
+    @RequirePOST
+    @SuppressWarnings("unused") // called reflectively by Stapler
+    public void doRegister(StaplerRequest req, StaplerResponse rsp)
+            throws IOException
+    {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        final boolean includeRegistered = req.getParameter("includeRegistered") != null;
+        try {
+            jenkins.util.Timer.get().submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    BulkRegistration.registerAll(includeRegistered);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            logger.warning(String.format("Bulk registration is not scheduled: %s", e.getMessage()));
+        }
+        rsp.sendRedirect(".");
+    }
+}
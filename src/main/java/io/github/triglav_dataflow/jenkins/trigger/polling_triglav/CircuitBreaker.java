@@ -0,0 +1,171 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker shared by all triggers calling the same Triglav api url.
+ * <p>
+ * The breaker opens after a run of consecutive failures, and requests fail fast without
+ * touching the network while it is open. After the open period one probe request is let
+ * through (half-open); its success closes the breaker and its failure opens it again.
+ * Only connection failures and 5xx responses count as failures.
+ */
+public class CircuitBreaker
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_SECONDS = 30L;
+    private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public static CircuitBreaker forEndpoint(String apiUrl)
+    {
+        CircuitBreaker breaker = breakers.get(apiUrl);
+        if (breaker != null) {
+            return breaker;
+        }
+        CircuitBreaker newBreaker = new CircuitBreaker(apiUrl);
+        breaker = breakers.putIfAbsent(apiUrl, newBreaker);
+        return breaker == null ? newBreaker : breaker;
+    }
+
+    /**
+     * @return true if the status code means Triglav is unavailable rather than the request is wrong.
+     *         0 is the status code of connection failures.
+     */
+    public static boolean isFailure(int statusCode)
+    {
+        return statusCode == 0 || statusCode >= 500;
+    }
+
+    private final String apiUrl;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openUntilMillis = 0L;
+    private boolean isProbing = false;
+
+    CircuitBreaker(String apiUrl)
+    {
+        this.apiUrl = apiUrl;
+    }
+
+    /**
+     * @return false if the request must fail fast. A caller given true must call
+     *         {@link #recordSuccess()} or {@link #recordFailure()} afterwards.
+     */
+    public boolean allowRequest()
+    {
+        return allowRequest(System.currentTimeMillis());
+    }
+
+    synchronized boolean allowRequest(long nowMillis)
+    {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nowMillis < openUntilMillis) {
+                    return false;
+                }
+                logger.fine(String.format("Circuit breaker for %s is half-open.", apiUrl));
+                state = State.HALF_OPEN;
+                isProbing = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (isProbing) {
+                    return false;
+                }
+                isProbing = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess()
+    {
+        if (state != State.CLOSED) {
+            logger.info(String.format("Circuit breaker for %s is closed.", apiUrl));
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        isProbing = false;
+    }
+
+    public void recordFailure()
+    {
+        recordFailure(System.currentTimeMillis());
+    }
+
+    synchronized void recordFailure(long nowMillis)
+    {
+        consecutiveFailures++;
+        isProbing = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold()) {
+            if (state != State.OPEN) {
+                logger.warning(String.format("Circuit breaker for %s is open after %d consecutive failures.", apiUrl, consecutiveFailures));
+            }
+            state = State.OPEN;
+            openUntilMillis = nowMillis + java.util.concurrent.TimeUnit.SECONDS.toMillis(openSeconds());
+        }
+    }
+
+    public void record(int statusCode)
+    {
+        if (isFailure(statusCode)) {
+            recordFailure();
+        }
+        else {
+            recordSuccess();
+        }
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        if (state == State.OPEN) {
+            long remainingSeconds = Math.max(0L, (openUntilMillis - System.currentTimeMillis()) / 1000L);
+            return String.format("%s (%d consecutive failures, half-open in %d seconds)", state, consecutiveFailures, remainingSeconds);
+        }
+        return String.format("%s (%d consecutive failures)", state, consecutiveFailures);
+    }
+
+    private static int failureThreshold()
+    {
+        try {
+            return PollingTriglavTrigger.getCircuitBreakerFailureThreshold();
+        }
+        catch (RuntimeException e) {
+            // Jenkins is not ready yet.
+            return DEFAULT_FAILURE_THRESHOLD;
+        }
+    }
+
+    private static long openSeconds()
+    {
+        try {
+            return PollingTriglavTrigger.getCircuitBreakerOpenSeconds();
+        }
+        catch (RuntimeException e) {
+            // Jenkins is not ready yet.
+            return DEFAULT_OPEN_SECONDS;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import io.github.triglav_dataflow.client.ApiException;
+
+import java.util.logging.Logger;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * How far behind Triglav a trigger is.
+ * <p>
+ * The oldest unconsumed message and the enqueue delay are recorded by pollings, which already talk to Triglav.
+ * The last job message id is shared by all triggers and sampled by {@link SampleWork},
+ * so the offset gap costs no request per job.
+ */
+public class ConsumerLag
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    static final long[] DELAY_BUCKETS_SECONDS = {60L, 300L, 900L, 1800L, 3600L, 7200L, 21600L, 86400L};
+    private static final long NOT_SAMPLED = -1L;
+    private static volatile long lastJobMessageId = NOT_SAMPLED;
+    private static volatile long lastJobMessageIdSampledAtMillis = 0L;
+
+    private volatile long oldestUnconsumedMessageTimeMillis = 0L;
+    private volatile long lastPolledAtMillis = 0L;
+    private volatile long lastEnqueueDelayMillis = NOT_SAMPLED;
+    private volatile long lastEnqueuedAtMillis = 0L;
+
+    /**
+     * @param oldestUnconsumedMessageTimeMillis time of the first message left in Triglav after this polling, or 0 if nothing is left.
+     */
+    public void recordPolling(long polledAtMillis, long oldestUnconsumedMessageTimeMillis)
+    {
+        this.oldestUnconsumedMessageTimeMillis = oldestUnconsumedMessageTimeMillis;
+        this.lastPolledAtMillis = polledAtMillis;
+    }
+
+    /**
+     * @param messageTimeMillis {@code TRIGLAV_JOB_MESSAGE_TIME} of the message which triggered the build.
+     */
+    public void recordEnqueue(long enqueuedAtMillis, long messageTimeMillis)
+    {
+        long delay = Math.max(0L, enqueuedAtMillis - messageTimeMillis);
+        this.lastEnqueueDelayMillis = delay;
+        this.lastEnqueuedAtMillis = enqueuedAtMillis;
+        TriglavMetrics.observe("message_to_enqueue_delay_seconds", DELAY_BUCKETS_SECONDS, delay / 1000L);
+    }
+
+    /**
+     * @return the number of job message ids between the offset and the last job message id, or -1 if not sampled yet.
+     * Ids are shared by all Triglav jobs, so this is the upper bound of the messages left for this job.
+     */
+    public long offsetGap(long jobMessageOffset)
+    {
+        long lastId = lastJobMessageId;
+        if (lastId == NOT_SAMPLED) {
+            return NOT_SAMPLED;
+        }
+        return Math.max(0L, lastId + 1L - jobMessageOffset);
+    }
+
+    /**
+     * @return age of the oldest unconsumed message as of the last polling, or 0 if the job has caught up.
+     */
+    public long oldestUnconsumedMessageAgeMillis(long nowMillis)
+    {
+        long time = oldestUnconsumedMessageTimeMillis;
+        if (time == 0L) {
+            return 0L;
+        }
+        return Math.max(0L, nowMillis - time);
+    }
+
+    public long getLastPolledAtMillis()
+    {
+        return lastPolledAtMillis;
+    }
+
+    /**
+     * @return delay from {@code TRIGLAV_JOB_MESSAGE_TIME} to scheduling the last build, or -1 if nothing is enqueued yet.
+     */
+    public long getLastEnqueueDelayMillis()
+    {
+        return lastEnqueueDelayMillis;
+    }
+
+    public long getLastEnqueuedAtMillis()
+    {
+        return lastEnqueuedAtMillis;
+    }
+
+    public static long getLastJobMessageId()
+    {
+        return lastJobMessageId;
+    }
+
+    public static long getLastJobMessageIdSampledAtMillis()
+    {
+        return lastJobMessageIdSampledAtMillis;
+    }
+
+    static void sampleLastJobMessageId()
+    {
+        try {
+            lastJobMessageId = TriglavClient.fromTriggerAdminParameter().getLastJobMessageId();
+            lastJobMessageIdSampledAtMillis = System.currentTimeMillis();
+        }
+        catch (ApiException e) {
+            logger.fine(String.format("Failed to sample the last job message id: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Samples the last job message id once per minute for all triggers.
+     */
+    @Extension
+    public static final class SampleWork
+            extends PeriodicWork
+    {
+        @Override
+        public long getRecurrencePeriod()
+        {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun()
+        {
+            if (isBlank(PollingTriglavTrigger.getTriglavApiUrl())) {
+                return;
+            }
+            sampleLastJobMessageId();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+
+/**
+ * Shows {@link ConsumerLag} of a job on its page.
+ */
+public class ConsumerLagAction
+        implements Action
+{
+    private final AbstractProject project;
+    private final PollingTriglavTrigger trigger;
+
+    public ConsumerLagAction(AbstractProject project, PollingTriglavTrigger trigger)
+    {
+        this.project = project;
+        this.trigger = trigger;
+    }
+
+    @Override
+    public String getIconFileName()
+    {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+        return "Triglav Consumer Lag";
+    }
+
+    @Override
+    public String getUrlName()
+    {
+        return "polling-triglav-lag";
+    }
+
+    public AbstractProject getProject()
+    {
+        return project;
+    }
+
+    public String getTriglavJobId()
+    {
+        return trigger.parameters().jobId();
+    }
+
+    public long getJobMessageOffset()
+    {
+        return trigger.parameters().jobMessageOffset();
+    }
+
+    /**
+     * @return -1 if the last job message id is not sampled yet.
+     */
+    public long getOffsetGap()
+    {
+        return trigger.consumerLag().offsetGap(getJobMessageOffset());
+    }
+
+    public long getOldestUnconsumedMessageAgeMillis()
+    {
+        return trigger.consumerLag().oldestUnconsumedMessageAgeMillis(System.currentTimeMillis());
+    }
+
+    /**
+     * @return -1 if nothing is enqueued since Jenkins started.
+     */
+    public long getLastEnqueueDelayMillis()
+    {
+        return trigger.consumerLag().getLastEnqueueDelayMillis();
+    }
+
+    public String getOldestUnconsumedMessageAge()
+    {
+        long lastPolledAtMillis = trigger.consumerLag().getLastPolledAtMillis();
+        if (lastPolledAtMillis == 0L) {
+            return "N/A";
+        }
+        return Util.getTimeSpanString(getOldestUnconsumedMessageAgeMillis());
+    }
+
+    public String getLastEnqueueDelay()
+    {
+        long delay = getLastEnqueueDelayMillis();
+        if (delay < 0L) {
+            return "N/A";
+        }
+        return Util.getTimeSpanString(delay);
+    }
+
+    public String getLastPolledAt()
+    {
+        return ago(trigger.consumerLag().getLastPolledAtMillis());
+    }
+
+    public String getLastEnqueuedAt()
+    {
+        return ago(trigger.consumerLag().getLastEnqueuedAtMillis());
+    }
+
+    public long getLastJobMessageId()
+    {
+        return ConsumerLag.getLastJobMessageId();
+    }
+
+    private static String ago(long millis)
+    {
+        if (millis == 0L) {
+            return "N/A";
+        }
+        return Util.getPastTimeString(System.currentTimeMillis() - millis) + " ago";
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lists {@link ConsumerLag} of all jobs registered to Triglav at {@code /polling-triglav-lag/},
+ * the most lagging job first. {@code /polling-triglav-lag/api} returns the same as JSON.
+ * Jobs are looked up from {@link TriggerRegistry}, so a request never walks all items.
+ */
+@Extension
+public class ConsumerLagRootAction
+        implements RootAction
+{
+    @Override
+    public String getIconFileName()
+    {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+        return "Triglav Consumer Lag";
+    }
+
+    @Override
+    public String getUrlName()
+    {
+        return "polling-triglav-lag";
+    }
+
+    public long getLastJobMessageId()
+    {
+        return ConsumerLag.getLastJobMessageId();
+    }
+
+    public List<ConsumerLagAction> getLags()
+    {
+        List<ConsumerLagAction> lags = Lists.newArrayList();
+        for (String jobFullName : TriggerRegistry.get().entries().keySet()) {
+            AbstractProject project = Jenkins.getInstance().getItemByFullName(jobFullName, AbstractProject.class);
+            if (project == null) {
+                continue;
+            }
+            PollingTriglavTrigger trigger = (PollingTriglavTrigger) project.getTrigger(PollingTriglavTrigger.class);
+            if (trigger == null) {
+                continue;
+            }
+            lags.add(new ConsumerLagAction(project, trigger));
+        }
+        Collections.sort(lags, new Comparator<ConsumerLagAction>()
+        {
+            @Override
+            public int compare(ConsumerLagAction o1, ConsumerLagAction o2)
+            {
+                int c = Long.compare(o2.getOldestUnconsumedMessageAgeMillis(), o1.getOldestUnconsumedMessageAgeMillis());
+                if (c != 0) {
+                    return c;
+                }
+                return Long.compare(o2.getOffsetGap(), o1.getOffsetGap());
+            }
+        });
+        return lags;
+    }
+
+    @SuppressWarnings("unused") // called reflectively by Stapler
+    public void doApi(StaplerRequest req, StaplerResponse rsp)
+            throws IOException
+    {
+        JSONArray jobs = new JSONArray();
+        for (ConsumerLagAction lag : getLags()) {
+            JSONObject job = new JSONObject();
+            job.put("name", lag.getProject().getFullName());
+            job.put("triglavJobId", lag.getTriglavJobId());
+            job.put("jobMessageOffset", lag.getJobMessageOffset());
+            job.put("offsetGap", lag.getOffsetGap());
+            job.put("oldestUnconsumedMessageAgeMillis", lag.getOldestUnconsumedMessageAgeMillis());
+            job.put("lastEnqueueDelayMillis", lag.getLastEnqueueDelayMillis());
+            jobs.add(job);
+        }
+        JSONObject json = new JSONObject();
+        json.put("lastJobMessageId", getLastJobMessageId());
+        json.put("jobs", jobs);
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.setContentType("application/json; charset=UTF-8");
+        rsp.getWriter().write(json.toString());
+    }
+}
@@ -1,15 +1,15 @@
 package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import hudson.Extension;
 import hudson.model.AbstractProject;
-import hudson.model.BuildableItem;
 import hudson.model.Item;
-import io.github.triglav_dataflow.client.ApiException;
 import jenkins.model.Jenkins;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
@@ -19,13 +19,14 @@ public class ItemListener
     extends hudson.model.listeners.ItemListener
 {
     private static final Logger logger = PollingTriglavTrigger.getLogger();
+
     /**
-     *  ConcurrentHashMap<String, String> = {JenkinsJobFullName, TriglavJobId}
-     *
-     *  This ConcurrentHashMap is used for managing all jenkins job which has this plugin.
-     *  It's because triglav job cannot be deleted if renaming and deleting are done at the same time.
+     * @return full name of the Jenkins job registered as the Triglav job, or null if not found.
      */
-    private static final ConcurrentHashMap<String, String> tJobMap = new ConcurrentHashMap<>();
+    static String findJenkinsJobFullName(String triglavJobId)
+    {
+        return registry().findJenkinsJobFullName(triglavJobId);
+    }
 
     /**
      * Called after a new job is created by copying from an existing job.
@@ -61,6 +62,7 @@ public class ItemListener
                             item.getFullName(), t.parameters().jobId(), e.getMessage()
                     ), e);
         }
+        ReconcileQueue.request(item.getFullName()); // Register as a new Triglav job.
     }
 
     /**
@@ -75,24 +77,15 @@ public class ItemListener
     {
         super.onDeleted(item);
 
-        if (tJobMap.containsKey(item.getFullName())) {
-            String jobId = tJobMap.get(item.getFullName());
-
-            logger.fine(String.format("Job: %s Job ID: %s is deleted from Triglav.",
-                    item.getFullName(), jobId));
+        JobSaveQueue.remove(item.getFullName());
+        LastBuildIndex.get().remove(item.getFullName());
+        PollingTriglavTrigger.forgetStoppedRegistration(item.getFullName());
 
-            try {
-                unregisterJobFromTriglav(jobId);
-            }
-            catch (ApiException e) {
-                logger.throwing(getClass().getName(), "onDeleted", e);
-                throw new RuntimeException(
-                        String.format(
-                                "Job: %s, Job ID: %s, Error: %s",
-                                item.getFullName(), jobId, e.getMessage()
-                        ), e);
-            }
-            tJobMap.remove(item.getFullName());
+        // Also when the job may be being registered now.
+        if (registry().containsKey(item.getFullName()) || ReconcileQueue.status(item.getFullName()) != null) {
+            logger.fine(String.format("Job: %s Job ID: %s is deleted. Unregister it from Triglav.",
+                    item.getFullName(), registry().get(item.getFullName())));
+            ReconcileQueue.request(item.getFullName());
         }
     }
 
@@ -121,14 +114,17 @@ public class ItemListener
     {
         super.onLocationChanged(item, oldFullName, newFullName);
 
-        if (tJobMap.containsKey(oldFullName)) {
+        LastBuildIndex.get().rename(oldFullName, newFullName);
+
+        if (registry().containsKey(oldFullName)) {
             logger.fine(String.format("Job: %s Job ID: %s is location changed to %s.",
-                    oldFullName, tJobMap.get(oldFullName), newFullName));
-            String jobId = tJobMap.remove(oldFullName);
-            tJobMap.put(newFullName, jobId);
+                    oldFullName, registry().get(oldFullName), newFullName));
+            registry().rename(oldFullName, newFullName);
         }
 
-        onUpdated(item); // Re-register to Triglav if needed.
+        if (registry().containsKey(newFullName) || (isProject(item) && hasPollingTriglavTrigger(item))) {
+            ReconcileQueue.request(newFullName); // Update the job url registered on Triglav.
+        }
     }
 
     /**
@@ -143,147 +139,48 @@ public class ItemListener
         super.onUpdated(item);
 
         /*
-         * case 1: Already registered on Triglav, the job url is the same as registered.
-         * case 2: Already registered on Triglav, the job url is different from registered.
-         *   case A: Copy by the job.
-         *     #onCopied is called before #onUpdated, so just register same as case 4.
-         *   case B: Rename the job url.
-         *     #onLocationChanged is called before #onUpdated, so just update the job url registered on Triglav.
-         * case 3: Already registered on Triglav, but the job doesn't applied this plugin.
-         *   case A: Just remove this plugin.
-         *   case B: Remove this plugin and rename the job url.
-         *     #onLocationChanged is called before #onUpdated, and update tJobMap key to new job name in #onLocationChanged.
-         * case 4: Not registered on Triglav.
-         * case 5: Job is disabled.
+         * Triglav is updated by ReconcileQueue in background, so that saving the job does not wait for Triglav.
+         * See ReconcileQueue#reconcile for the cases.
          */
-
-        if (!isProject(item) || !hasPollingTriglavTrigger(item)) {
-            if (tJobMap.containsKey(item.getFullName())) {
-                String jobId = tJobMap.get(item.getFullName());
-
-                // case 3A or case 3B
-                logger.fine(String.format("Trigger is removed from %s. Triglav job id was %s.",
-                        item.getFullName(), jobId));
-
-                try {
-                    unregisterJobFromTriglav(jobId);
-                }
-                catch (ApiException e) {
-                    logger.throwing(getClass().getName(), "onUpdated", e);
-                    throw new RuntimeException(
-                            String.format(
-                                    "Job: %s, Job ID: %s, Error: %s",
-                                    item.getFullName(), jobId, e.getMessage()
-                            ), e);
-                }
-                tJobMap.remove(item.getFullName());
-            }
-            return;
-        }
-
-        JenkinsJob jenkinsJob = createJenkinsJob(item);
-        PollingTriglavTrigger t = getTrigger(item);
-        if (jenkinsJob.isDisabled()) {
-            // case 5
-            onDeleted(item);
-            t.parameters().initializeMinimumRequired();
-            try {
-                jenkinsJob.save();
-            }
-            catch (IOException e) {
-                logger.throwing(getClass().getName(), "onUpdated", e);
-                throw new RuntimeException(
-                        String.format(
-                                "Job: %s, Job ID: %s, Error: %s",
-                                item.getFullName(), t.parameters().jobId(), e.getMessage()
-                        ), e);
-            }
-            return;
-        }
-
-        boolean isRegistering = t.parameters().jobId() == null || t.parameters().jobId().isEmpty();
-
-        if (isRegistering) {
-            // case 2A or case 4
-            logger.fine(String.format("Register Job: %s as a new Triglav Job.", item.getFullName()));
-        }
-        else {
-            // case 2B or case 1
-            logger.fine(String.format("Update Job: %s.", item.getFullName()));
-        }
-
-        try {
-            TriglavJob triglavJob = createTriglavJob(t.parameters());
-            triglavJob.registerOrUpdate(jenkinsJob);
-            jenkinsJob.save();
-        }
-        catch (ApiException | IOException e) {
-            logger.throwing(getClass().getName(), "onUpdated", e);
-            throw new RuntimeException(
-                    String.format(
-                            "Job: %s, Job ID: %s, Error: %s",
-                            item.getFullName(), t.parameters().jobId(), e.getMessage()
-                    ), e);
-        }
-
-        if (isRegistering) {
-            // case 2A or case 4
-            logger.fine(String.format("Registered Job: %s as a Triglav Job ID: %s.",
-                    item.getFullName(), t.parameters().jobId()));
-            tJobMap.put(item.getFullName(), t.parameters().jobId());
-        }
-        else {
-            // case 2B or case 1
-            logger.fine(String.format("Updated Job: %s as a Triglav Job ID: %s.",
-                    item.getFullName(), t.parameters().jobId()));
-            if (!tJobMap.containsKey(item.getFullName())) {
-                logger.fine(String.format(
-                        "Updated Job ID: from %s to %s",
-                        tJobMap.get(item.getFullName()),
-                        t.parameters().jobId()));
-                tJobMap.put(item.getFullName(), t.parameters().jobId());
-            }
-            else if (!tJobMap.get(item.getFullName()).contentEquals(t.parameters().jobId())) {
-                logger.fine(String.format(
-                        "Updated Job ID: from %s to %s",
-                        tJobMap.get(item.getFullName()),
-                        t.parameters().jobId()));
-                tJobMap.replace(item.getFullName(), t.parameters().jobId());
-            }
+        if ((isProject(item) && hasPollingTriglavTrigger(item)) || registry().containsKey(item.getFullName())) {
+            ReconcileQueue.request(item.getFullName());
         }
     }
 
     /**
      * Called after all the jobs are loaded from disk into {@link jenkins.model.Jenkins}
      * object.
+     * <p>
+     * Only the jobs in {@link TriggerRegistry} are looked up. All items are walked only when the registry file is missing or corrupt.
      */
     public void onLoaded()
     {
         super.onLoaded();
 
-        tJobMap.clear();
-
-        for (Item item : jenkins().getAllItems()) {
-            if (!isProject(item) || !hasPollingTriglavTrigger(item)) {
-                continue;
-            }
-
-            PollingTriglavTrigger t = getTrigger(item);
-            String jobId = t.parameters().jobId();
-            if (jobId == null || jobId.isEmpty()) {
-                // Not be registered to Triglav Server.
-                return;
-            }
-            logger.fine(String.format("Find Job: %s, Triglav Job ID: %s.",
-                    item.getFullName(), jobId));
-
-            if (tJobMap.containsKey(item.getFullName())) {
-                logger.warning(String.format("Already registered Job: %s, Triglav Job ID: %s",
-                        item.getFullName(), jobId));
+        TriggerRegistry registry = registry();
+        if (!registry.isLoaded()) {
+            registry.rebuild();
+        }
+        else {
+            for (Map.Entry<String, String> entry : registry.entries().entrySet()) {
+                Item item = jenkins().getItemByFullName(entry.getKey());
+                if (item == null || !isProject(item) || !hasPollingTriglavTrigger(item)) {
+                    // Unregistered from Triglav on shutdown.
+                    logger.fine(String.format("Job: %s, Triglav Job ID: %s is not found or has no trigger.",
+                            entry.getKey(), entry.getValue()));
+                    continue;
+                }
+                String jobId = getTrigger(item).parameters().jobId();
+                if (!isBlank(jobId) && !jobId.contentEquals(entry.getValue())) {
+                    logger.warning(String.format("Job: %s has Triglav Job ID: %s, but the registry had %s.",
+                            entry.getKey(), jobId, entry.getValue()));
+                    registry.put(entry.getKey(), jobId);
+                }
             }
-
-            tJobMap.put(item.getFullName(), jobId);
         }
+        registry.save();
+        TriglavCleanup.retryLater();
+        BulkRegistration.registerPendingLater();
     }
 
     /**
@@ -298,83 +195,50 @@ public class ItemListener
     {
         super.onBeforeShutdown();
 
+        // Reconciliation and unregistration share Cleanup Timeout Seconds.
+        long deadlineMillis = System.currentTimeMillis() + java.util.concurrent.TimeUnit.SECONDS.toMillis(PollingTriglavTrigger.getCleanupTimeoutSeconds());
+        ReconcileQueue.shutdown(Math.max(0L, deadlineMillis - System.currentTimeMillis()));
+
+        // Persist offsets, api keys and Triglav job ids which are not saved yet, including the ones set by the reconciliations above.
+        OffsetJournal.get().sync();
+        JobSaveQueue.flush();
+        LastBuildIndex.get().save();
+
         /*
          * In order to unregister the missing job among the Triglav jobs that were registered in this Jenkins in the past,
-         * first, delete the job registered in Jenkins from the correspondence table of Jenkins job and Triglav job managed by ItemListener.
-         * After that, delete jobs left in the correspondence table from Triglav.
+         * look up the jobs in the correspondence table of Jenkins job and Triglav job managed by TriggerRegistry,
+         * and delete the ones which no longer exist or no longer have the trigger from Triglav.
          */
-        for (Item item : jenkins().getAllItems()) {
-            if (!isProject(item) || !hasPollingTriglavTrigger(item)) {
-                continue;
-            }
-
-            PollingTriglavTrigger t = getTrigger(item);
-            if (!tJobMap.containsKey(item.getFullName())) {
-                // new Job case
-                if (isBlank(t.parameters().jobId())) {
-                    logger.fine(String.format(
-                            "Job has the trigger, but the job is not registered to Triglav: Job: %s",
-                            item.getFullName()));
+        TriggerRegistry registry = registry();
+        Map<String, String> staleJobs = Maps.newHashMap();
+        List<String> staleJobFullNames = Lists.newArrayList();
+        for (Map.Entry<String, String> entry : registry.entries().entrySet()) {
+            Item item = jenkins().getItemByFullName(entry.getKey());
+            if (item != null && isProject(item) && hasPollingTriglavTrigger(item)) {
+                String jobId = getTrigger(item).parameters().jobId();
+                if (!isBlank(jobId)) {
+                    if (!jobId.contentEquals(entry.getValue())) {
+                        logger.warning(String.format(
+                                "Illegal state: Job: %s, Triglav Job ID: %s, but TriggerRegistry manages Job ID: %s.",
+                                entry.getKey(), jobId, entry.getValue()));
+                    }
                     continue;
                 }
-
-                // Illegal State case
-                logger.warning(String.format(
-                        "Illegal state: Job has the trigger, but the job is not managed by ItemListener: Job: %s, Triglav Job ID: %s",
-                        item.getFullName(), t.parameters().jobId()));
-
-                onUpdated(item); // Register Triglav
-            }
-
-            String jobId = tJobMap.remove(item.getFullName());
-            if (isBlank(jobId) && !isBlank(t.parameters().jobId())) {
-                logger.warning(String.format(
-                        "Illegal state: Job has the trigger, but the job id is different from ItemListener managed: Job: %s, Triglav Job ID: %s",
-                        item.getFullName(), t.parameters().jobId()));
-                continue;
-            }
-
-            if (!jobId.contentEquals(t.parameters().jobId())) {
-                logger.warning(String.format(
-                        "Illegal state: Job: %s, Triglav Job ID: %s, but ItemLister manages Job ID: %s.",
-                        item.getFullName(), t.parameters().jobId(), jobId));
             }
-        }
 
-        for (Map.Entry<String, String> entry : tJobMap.entrySet()) {
             logger.warning(String.format(
                     "Unregister Job: %s, Triglav Job ID: %s because the job should had been already unregistered.",
                     entry.getKey(), entry.getValue()));
-            try {
-                unregisterJobFromTriglav(entry.getValue());
-            }
-            catch (ApiException e) {
-                logger.throwing(getClass().getName(), "onUpdated", e);
-                throw new RuntimeException(
-                        String.format(
-                                "Job: %s, Job ID: %s, Error: %s",
-                                entry.getKey(), entry.getValue(), e.getMessage()
-                        ), e);
-            }
+            staleJobs.put(entry.getValue(), entry.getKey());
+            staleJobFullNames.add(entry.getKey());
         }
-    }
-
-    private void unregisterJobFromTriglav(String jobId)
-            throws ApiException
-    {
-        TriglavClient c = TriglavClient.fromTriggerAdminParameter();
-        c.unregisterJob(jobId);
-    }
-
-    private TriglavJob createTriglavJob(PollingTriglavTrigger.Parameters parameters)
-            throws ApiException
-    {
-        return new TriglavJob(parameters, TriglavClient.fromTriggerParameter(parameters));
-    }
 
-    private JenkinsJob createJenkinsJob(Item item)
-    {
-        return new JenkinsJob((BuildableItem) item);
+        // Unregistrations not finished in time are retried after the next start, so they are no longer in the registry.
+        TriglavCleanup.unregister(staleJobs, deadlineMillis);
+        for (String jobFullName : staleJobFullNames) {
+            registry.remove(jobFullName);
+        }
+        registry.save();
     }
 
     private PollingTriglavTrigger getTrigger(Item item)
@@ -397,6 +261,11 @@ public class ItemListener
         return item instanceof AbstractProject;
     }
 
+    private static TriggerRegistry registry()
+    {
+        return TriggerRegistry.get();
+    }
+
     private Jenkins jenkins()
     {
         return Jenkins.getInstance();
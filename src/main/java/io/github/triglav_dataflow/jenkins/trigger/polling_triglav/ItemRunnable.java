@@ -1,12 +1,15 @@
 package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
 
+import com.google.common.collect.ImmutableMap;
 import hudson.model.BuildableItem;
 import hudson.model.Cause;
 import hudson.model.ParameterValue;
 import io.github.triglav_dataflow.client.ApiException;
 
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ItemRunnable implements Runnable
@@ -14,21 +17,18 @@ public class ItemRunnable implements Runnable
     private static Logger logger = PollingTriglavTrigger.getLogger();
     JenkinsJob jenkinsJob;
     private PollingTriglavTrigger plugin;
+    private final long startedAtMillis;
 
     public ItemRunnable(PollingTriglavTrigger plugin, BuildableItem job)
     {
         this.plugin = plugin;
         this.jenkinsJob = new JenkinsJob(job);
+        this.startedAtMillis = System.currentTimeMillis();
     }
 
     public void run()
     {
-        if (jenkinsJob.isDisabled()) {
-            // no log
-            return;
-        }
-        if (jenkinsJob.isBuildBlocked()) {
-            logger.fine(String.format("Job: %s is blocked.", jenkinsJob.name()));
+        if (!isPollable()) {
             return;
         }
 
@@ -44,22 +44,152 @@ public class ItemRunnable implements Runnable
                 return;
             }
 
-            boolean builtJenkinsJobs = performTriglavPolling(triglavJob);
+            refreshIfTimeZoneChanged(triglavJob);
+            try {
+                boolean builtJenkinsJobs = performTriglavPolling(triglavJob);
+                recordPolling(builtJenkinsJobs);
+            }
+            catch (ApiException e) {
+                logger.warning(String.format("Failed to poll Job: %s: %s", jenkinsJob.name(), e.getMessage()));
+                recordFailedPolling();
+            }
+        }
+        else {
+            recordFailedPolling();
+        }
+        // alternativeExecutionTime is handled by AlternativeExecutionScheduler.
+    }
 
-            if (builtJenkinsJobs) {
-                return;
+    /**
+     * Same as {@link #run()}, but does not block any thread while waiting for Triglav.
+     * Only enqueueing builds is done on {@code enqueueExecutor}.
+     *
+     * @param onComplete called exactly once when this polling is finished.
+     */
+    public void runAsync(final Executor enqueueExecutor, final Runnable onComplete)
+    {
+        if (!isPollable()) {
+            onComplete.run();
+            return;
+        }
+
+        TriglavClient triglavClient = initializeTriglavClient();
+
+        if (null == triglavClient) {
+            recordFailedPolling();
+            onComplete.run();
+            return;
+        }
+
+        TriglavJob triglavJob = new TriglavJob(plugin.parameters(), triglavClient);
+
+        if (!triglavJob.hasId()) {
+            logger.fine(String.format(
+                "Job: %s is skipped because Job does not have Triglav Job ID.",
+                jenkinsJob.name()));
+            onComplete.run();
+            return;
+        }
+
+        refreshIfTimeZoneChanged(triglavJob);
+        final int maxEnqueueCount = PollingTriglavTrigger.getMaxEnqueueCount();
+        triglavJob.pollAsync(maxEnqueueCount, new TriglavJob.PollCallback()
+        {
+            @Override
+            public void onPolled(final List<ImmutableMap<String, String>> messages)
+            {
+                recordPolling(!messages.isEmpty());
+                submit(enqueueExecutor, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        enqueue(messages, maxEnqueueCount);
+                    }
+                }, onComplete);
             }
+
+            @Override
+            public void onFailure(Exception e)
+            {
+                logger.warning(String.format("Error in %s: %s ", ItemRunnable.class.getName(), e));
+                recordFailedPolling();
+                onComplete.run();
+            }
+        });
+    }
+
+    private void submit(Executor executor, final Runnable task, final Runnable onComplete)
+    {
+        try {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        task.run();
+                    }
+                    catch (RuntimeException e) {
+                        logger.log(Level.WARNING, String.format("Error in polling Job: %s, Error: %s", jenkinsJob.name(), e.getMessage()), e);
+                    }
+                    finally {
+                        onComplete.run();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            logger.warning(String.format("Job: %s is not enqueued because the enqueue pool is shut down.", jenkinsJob.name()));
+            onComplete.run();
         }
+    }
 
-        performAlternativeExecutionTimeCheck();
+    private void recordPolling(boolean hasFoundMessages)
+    {
+        PollingTriglavTrigger.Parameters parameters = plugin.parameters();
+        plugin.backoff().record(
+                startedAtMillis,
+                hasFoundMessages,
+                parameters.minPollingIntervalSeconds(),
+                parameters.maxPollingIntervalSeconds());
+    }
+
+    /**
+     * A failed polling says nothing about whether messages are coming, so it does not change the interval.
+     */
+    private void recordFailedPolling()
+    {
+        PollingTriglavTrigger.Parameters parameters = plugin.parameters();
+        plugin.backoff().recordFailure(
+                startedAtMillis,
+                parameters.minPollingIntervalSeconds(),
+                parameters.maxPollingIntervalSeconds());
+    }
+
+    private boolean isPollable()
+    {
+        if (jenkinsJob.isDisabled()) {
+            // no log
+            return false;
+        }
+        if (jenkinsJob.isBuildBlocked()) {
+            logger.fine(String.format("Job: %s is blocked.", jenkinsJob.name()));
+            return false;
+        }
+        return true;
     }
 
     private TriglavClient initializeTriglavClient()
     {
         TriglavClient triglavClient = null;
+        String apiKey = plugin.parameters().apiKey();
 
         try {
             triglavClient = TriglavClient.fromTriggerParameter(plugin.parameters());
+            if (!triglavClient.getApiKey().equals(apiKey)) {
+                jenkinsJob.saveLater();
+            }
         }
         catch (ApiException e) {
             logger.warning(String.format("Error in %s: %s ", ItemRunnable.class.getName(), e));
@@ -68,35 +198,66 @@ public class ItemRunnable implements Runnable
         return triglavClient;
     }
 
+    private void refreshIfTimeZoneChanged(TriglavJob triglavJob)
+    {
+        try {
+            if (triglavJob.refreshIfTimeZoneChanged(jenkinsJob)) {
+                jenkinsJob.saveLater();
+            }
+        }
+        catch (ApiException e) {
+            // Retried on the next polling since the registered time zone is not updated.
+            logger.warning(String.format("Failed to register Job: %s again: %s", jenkinsJob.name(), e.getMessage()));
+        }
+    }
+
     private boolean performTriglavPolling(TriglavJob triglavJob)
+            throws ApiException
     {
+        int maxEnqueueCount = PollingTriglavTrigger.getMaxEnqueueCount();
+        return enqueue(triglavJob.poll(maxEnqueueCount), maxEnqueueCount);
+    }
+
+    private boolean enqueue(List<ImmutableMap<String, String>> messages, int maxEnqueueCount)
+    {
+        TriglavMetrics.observe("messages_consumed_per_poll", TriglavMetrics.COUNT_BUCKETS, messages.size());
+        TriglavMetrics.add("messages_consumed_total", messages.size());
+        if (messages.isEmpty()) {
+            return false;
+        }
+
         int i = 0;
-        while (triglavJob.poll()) {
+        for (ImmutableMap<String, String> message : messages) {
             i++;
             logger.fine(String.format("Enqueue Job %s triggered by Triglav. Enqueue count %d.", jenkinsJob.name(), i));
-            List<ParameterValue> buildParameters = new JobBuildParametersBuilder(triglavJob.currentMessage()).build();
+            List<ParameterValue> buildParameters = new JobBuildParametersBuilder(message).build();
             jenkinsJob.setBuildParameters(buildParameters);
             Cause cause = new TriglavTriggeredCause(buildParameters);
-            jenkinsJob.buildAndSave(cause);
+            jenkinsJob.build(cause);
+            recordEnqueue(message);
+        }
+        // The offset has been advanced once for the whole batch and is persisted by OffsetJournal,
+        // so no need to save the job.
+        AlternativeExecutionScheduler.onTriglavBuild(plugin);
 
-            if (i >= PollingTriglavTrigger.getMaxEnqueueCount()) {
-                logger.fine(String.format("Max enqueue count %d is exceeded. Wait until next enqueue chance.", i));
-                break;
-            }
+        if (i >= maxEnqueueCount) {
+            logger.fine(String.format("Max enqueue count %d is reached. Wait until next enqueue chance.", i));
         }
 
-        return i > 0;
+        return true;
     }
 
-    private void performAlternativeExecutionTimeCheck()
+    private void recordEnqueue(ImmutableMap<String, String> message)
     {
-        Date alternativeExecutionTime = plugin.parameters().alternativeExecutionTime();
-        TimeUnit timeUnit = plugin.parameters().timeUnit();
-
-        if (AlternativeExecutionTime.shouldBuild(alternativeExecutionTime, jenkinsJob, timeUnit)) {
-            logger.fine(String.format("Enqueue Job %s using alternativeExecutionTime.", jenkinsJob.name()));
-            Cause cause = new AlternativeExecutionTimeTriggeredCause();
-            jenkinsJob.buildAndSave(cause);
+        String time = message.get("TRIGLAV_JOB_MESSAGE_TIME");
+        if (time == null) {
+            return;
+        }
+        try {
+            plugin.consumerLag().recordEnqueue(System.currentTimeMillis(), Long.parseLong(time) * 1000L);
+        }
+        catch (NumberFormatException e) {
+            logger.fine(String.format("Job: %s, Invalid TRIGLAV_JOB_MESSAGE_TIME: %s", jenkinsJob.name(), time));
         }
     }
 }
@@ -1,55 +1,289 @@
 package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
 
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.model.AbstractProject;
 import hudson.model.BuildableItem;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class ItemRunner
 {
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final int DEFAULT_NUM_THREADS = 100;
+
     private ItemRunner()
     {
     }
 
-    private static ListeningExecutorService createThreadPool(int numThreads)
+    private static ThreadPoolExecutor createThreadPool(int numThreads, String nameFormat)
+    {
+        // The queue is unbounded, but it never holds more than one task per job because of inFlightJobs.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                numThreads, numThreads,
+                60L, java.util.concurrent.TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static volatile ThreadPoolExecutor runnerPool;
+    private static volatile ThreadPoolExecutor enqueuePool;
+    /**
+     * Full names of jobs which are queued or being polled.
+     */
+    private static final Set<String> inFlightJobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Full names of jobs to be polled again as soon as the polling in progress finishes.
+     */
+    private static final Set<String> rerunRequestedJobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static ThreadPoolExecutor runnerPool()
+    {
+        ThreadPoolExecutor pool = runnerPool;
+        if (pool != null) {
+            return pool;
+        }
+        synchronized (ItemRunner.class) {
+            if (runnerPool == null) {
+                runnerPool = createThreadPool(numThreads(), "polling-triglav-runner-%d");
+            }
+            return runnerPool;
+        }
+    }
+
+    /**
+     * Small pool used by asynchronous polling, which only enqueues builds and saves jobs.
+     */
+    private static ThreadPoolExecutor enqueuePool()
+    {
+        ThreadPoolExecutor pool = enqueuePool;
+        if (pool != null) {
+            return pool;
+        }
+        synchronized (ItemRunner.class) {
+            if (enqueuePool == null) {
+                enqueuePool = createThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), "polling-triglav-enqueue-%d");
+            }
+            return enqueuePool;
+        }
+    }
+
+    private static int numThreads()
+    {
+        try {
+            return PollingTriglavTrigger.getPollingThreads();
+        }
+        catch (RuntimeException e) {
+            // Jenkins is not ready yet.
+            return DEFAULT_NUM_THREADS;
+        }
+    }
+
+    /**
+     * Submit a poll of the job unless the job is disabled or its previous poll has not finished yet.
+     *
+     * @return true if a poll is submitted.
+     */
+    public static boolean runIfPossible(final PollingTriglavTrigger plugin, final BuildableItem job)
+    {
+        if (job == null) {
+            return false;
+        }
+        if (job instanceof AbstractProject && ((AbstractProject) job).isDisabled()) {
+            // no log
+            return false;
+        }
+
+        final String name = job.getFullName();
+        if (!inFlightJobs.add(name)) {
+            logger.fine(String.format("Job: %s is skipped because the previous polling has not finished yet.", name));
+            return false;
+        }
+
+        try {
+            if (isAsyncPolling()) {
+                enqueuePool().execute(createAsyncTask(plugin, job, name));
+            }
+            else {
+                runnerPool().execute(createTask(plugin, job, name));
+            }
+        }
+        catch (RejectedExecutionException e) {
+            inFlightJobs.remove(name);
+            logger.warning(String.format("Job: %s is not polled because the runner pool is shut down.", name));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Submit a poll of the job right away. If the previous poll has not finished yet, the job is polled again
+     * right after it, because the poll in progress may have started before the notified messages are published.
+     *
+     * @return true if a poll is submitted, false if it is skipped or runs after the poll in progress.
+     */
+    public static boolean runNow(final PollingTriglavTrigger plugin, final BuildableItem job)
+    {
+        if (job == null) {
+            return false;
+        }
+        if (runIfPossible(plugin, job)) {
+            return true;
+        }
+        String name = job.getFullName();
+        rerunRequestedJobs.add(name);
+        if (inFlightJobs.contains(name)) {
+            logger.fine(String.format("Job: %s will be polled again after the polling in progress.", name));
+            return false;
+        }
+        // The previous poll has finished meanwhile, or the job is not pollable.
+        if (rerunRequestedJobs.remove(name)) {
+            return runIfPossible(plugin, job);
+        }
+        return false;
+    }
+
+    /**
+     * Called exactly once when a poll of the job is finished.
+     */
+    private static void complete(PollingTriglavTrigger plugin, BuildableItem job, String name)
     {
-        return MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numThreads));
+        inFlightJobs.remove(name);
+        if (rerunRequestedJobs.remove(name)) {
+            // The finished poll has recorded its own result, so reset the backoff again.
+            plugin.backoff().reset();
+            runIfPossible(plugin, job);
+        }
     }
-    // TODO: make num threads configurable
-    private static final ListeningExecutorService runnerPool = createThreadPool(100);
 
-    public static void runIfPossible(final PollingTriglavTrigger plugin, final BuildableItem job)
+    private static Runnable createTask(final PollingTriglavTrigger plugin, final BuildableItem job, final String name)
     {
-        final ListenableFuture<?> future = runnerPool.submit(new ItemRunnable(plugin, job));
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    new ItemRunnable(plugin, job).run();
+                }
+                catch (RuntimeException e) {
+                    logger.log(Level.WARNING, String.format("Error in polling Job: %s, Error: %s", name, e.getMessage()), e);
+                }
+                finally {
+                    complete(plugin, job, name);
+                }
+            }
+        };
+    }
 
-        future.addListener(new Runnable()
+    /**
+     * The task only prepares a request to Triglav and returns immediately.
+     * The response is handled on a thread of the http client, and builds are enqueued on {@link #enqueuePool()}.
+     */
+    private static Runnable createAsyncTask(final PollingTriglavTrigger plugin, final BuildableItem job, final String name)
+    {
+        return new Runnable()
         {
             @Override
             public void run()
             {
-                while (true) {
-                    if (future.isDone() || future.isCancelled()) {
-                        try {
-                            future.get();
-                            break;
-                        }
-                        catch (InterruptedException | ExecutionException e) {
-                            throw new RuntimeException(String.format("Error: %s", e.getMessage()), e);
+                final AtomicBoolean isCompleted = new AtomicBoolean(false);
+                Runnable onComplete = new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (isCompleted.compareAndSet(false, true)) {
+                            complete(plugin, job, name);
                         }
                     }
-                    Thread.yield();
+                };
+                try {
+                    new ItemRunnable(plugin, job).runAsync(enqueuePool(), onComplete);
+                }
+                catch (RuntimeException e) {
+                    logger.log(Level.WARNING, String.format("Error in polling Job: %s, Error: %s", name, e.getMessage()), e);
+                    onComplete.run();
                 }
             }
-        }, runnerPool);
+        };
+    }
+
+    private static boolean isAsyncPolling()
+    {
+        try {
+            return PollingTriglavTrigger.isAsyncPolling();
+        }
+        catch (RuntimeException e) {
+            // Jenkins is not ready yet.
+            return false;
+        }
+    }
+
+    /**
+     * Change the number of polling threads without dropping queued polls.
+     */
+    public static void resize(int numThreads)
+    {
+        ThreadPoolExecutor pool = runnerPool;
+        if (pool == null || numThreads < 1) {
+            return;
+        }
+        synchronized (ItemRunner.class) {
+            if (numThreads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(numThreads);
+                pool.setCorePoolSize(numThreads);
+            }
+            else {
+                pool.setCorePoolSize(numThreads);
+                pool.setMaximumPoolSize(numThreads);
+            }
+        }
+    }
+
+    public static int getQueueDepth()
+    {
+        return queueDepth(runnerPool) + queueDepth(enqueuePool);
+    }
+
+    public static int getActiveCount()
+    {
+        return activeCount(runnerPool) + activeCount(enqueuePool);
+    }
+
+    /**
+     * @return the number of jobs which are queued or being polled, including asynchronous polling waiting for Triglav.
+     */
+    public static int getInFlightCount()
+    {
+        return inFlightJobs.size();
+    }
+
+    private static int queueDepth(ThreadPoolExecutor pool)
+    {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    private static int activeCount(ThreadPoolExecutor pool)
+    {
+        return pool == null ? 0 : pool.getActiveCount();
     }
 
     public static void shutdown()
     {
-        if (!runnerPool.isShutdown()) {
-            runnerPool.shutdown();
+        for (ThreadPoolExecutor pool : new ThreadPoolExecutor[] {runnerPool, enqueuePool}) {
+            if (pool != null && !pool.isShutdown()) {
+                pool.shutdown();
+            }
         }
     }
 }
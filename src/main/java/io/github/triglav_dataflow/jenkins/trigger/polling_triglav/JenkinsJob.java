@@ -54,10 +54,12 @@ public class JenkinsJob
 
     public void build(Cause cause) throws RuntimeException
     {
+        long startNanos = System.nanoTime();
         item.scheduleBuild(
             0,
             cause,
             new ParametersAction(buildParameters()));
+        TriglavMetrics.observeMillis("jenkins_schedule_build_duration_ms", TriglavMetrics.elapsedMillis(startNanos));
     }
 
     /*
@@ -75,7 +77,15 @@ public class JenkinsJob
         return item.isDisabled();
     }
 
+    /**
+     * Read from {@link LastBuildIndex}, which does not load build records.
+     */
     public Date getLastBuildDate()
+    {
+        return LastBuildIndex.get().lastBuildDate(this);
+    }
+
+    Date getLastBuildDateFromBuildRecords()
     {
         AbstractBuild lastBuild = item.getLastBuild();
 
@@ -101,14 +111,15 @@ public class JenkinsJob
     public void buildAndSave(Cause cause)
     {
         build(cause);
-        try {
-            save();
-        }
-        catch (IOException e) {
-            logger.throwing(JenkinsJob.class.getName(), "buildAndSave", e);
-            throw new RuntimeException(
-                String.format("Error: %s, Job: %s", e.getMessage(), name()), e);
-        }
+        saveLater();
+    }
+
+    /**
+     * Save this job with {@link JobSaveQueue} instead of rewriting config.xml right now.
+     */
+    public void saveLater()
+    {
+        JobSaveQueue.enqueue(item);
     }
 
     private Jenkins jenkins()
@@ -0,0 +1,174 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind persistence of runtime state held by triggers, e.g. api keys.
+ * Job message offsets are persisted by {@link OffsetJournal}.
+ * <p>
+ * Polling only marks a job dirty. Dirty jobs are saved in the order they were first marked,
+ * periodically, when the number of dirty jobs reaches the batch size, and before Jenkins shuts down.
+ * A job marked dirty several times between flushes is saved once with its latest state.
+ */
+public class JobSaveQueue
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final Map<String, AbstractProject> dirtyJobs = new LinkedHashMap<>();
+    private static final Object flushLock = new Object();
+    private static final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+
+    private JobSaveQueue()
+    {
+    }
+
+    public static void enqueue(AbstractProject item)
+    {
+        int size;
+        synchronized (dirtyJobs) {
+            if (!dirtyJobs.containsKey(item.getFullName())) {
+                dirtyJobs.put(item.getFullName(), item);
+            }
+            size = dirtyJobs.size();
+        }
+        if (size >= batchSize()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Forget the job, e.g. because it has been deleted. Saving a deleted job would bring its configuration back.
+     */
+    public static void remove(String jobFullName)
+    {
+        synchronized (dirtyJobs) {
+            dirtyJobs.remove(jobFullName);
+        }
+    }
+
+    public static int size()
+    {
+        synchronized (dirtyJobs) {
+            return dirtyJobs.size();
+        }
+    }
+
+    /**
+     * Save all dirty jobs. Jobs that fail to be saved are kept dirty and retried by the next periodic flush.
+     */
+    public static void flush()
+    {
+        synchronized (flushLock) { // keep saves of successive flushes in order
+            List<AbstractProject> items;
+            synchronized (dirtyJobs) {
+                if (dirtyJobs.isEmpty()) {
+                    return;
+                }
+                items = Lists.newArrayList(dirtyJobs.values());
+                dirtyJobs.clear();
+            }
+
+            logger.fine(String.format("Save %d jobs.", items.size()));
+            List<AbstractProject> failedItems = Lists.newArrayList();
+            for (AbstractProject item : items) {
+                if (Jenkins.getInstance().getItemByFullName(item.getFullName()) != item) {
+                    // Deleted or replaced, e.g. by reloading the configuration.
+                    logger.fine(String.format("Skip saving Job: %s because it is no longer in Jenkins.", item.getFullName()));
+                    continue;
+                }
+                long startNanos = System.nanoTime();
+                try {
+                    item.save();
+                    TriglavMetrics.observeMillis("jenkins_job_save_duration_ms", TriglavMetrics.elapsedMillis(startNanos));
+                }
+                catch (IOException e) {
+                    logger.log(Level.WARNING, String.format("Failed to save Job: %s, Error: %s", item.getFullName(), e.getMessage()), e);
+                    failedItems.add(item);
+                }
+            }
+            retryLater(failedItems);
+        }
+    }
+
+    /**
+     * Keep the jobs dirty without scheduling a flush by the batch size, so that a persistent error,
+     * e.g. disk full, does not make a busy loop. {@link FlushWork} retries them.
+     */
+    private static void retryLater(List<AbstractProject> items)
+    {
+        if (items.isEmpty()) {
+            return;
+        }
+        synchronized (dirtyJobs) {
+            for (AbstractProject item : items) {
+                if (!dirtyJobs.containsKey(item.getFullName())) {
+                    dirtyJobs.put(item.getFullName(), item);
+                }
+            }
+        }
+    }
+
+    private static void scheduleFlush()
+    {
+        if (!isFlushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            jenkins.util.Timer.get().submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    isFlushScheduled.set(false);
+                    flush();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            isFlushScheduled.set(false);
+            logger.warning(String.format("Failed to schedule saving jobs: %s", e.getMessage()));
+        }
+    }
+
+    private static int batchSize()
+    {
+        try {
+            return PollingTriglavTrigger.getSaveBatchSize();
+        }
+        catch (RuntimeException e) {
+            // Jenkins is not ready yet.
+            return DEFAULT_BATCH_SIZE;
+        }
+    }
+
+    @Extension
+    public static final class FlushWork
+            extends PeriodicWork
+    {
+        @Override
+        public long getRecurrencePeriod()
+        {
+            return java.util.concurrent.TimeUnit.SECONDS.toMillis(PollingTriglavTrigger.getSaveIntervalSeconds());
+        }
+
+        @Override
+        protected void doRun()
+        {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.PeriodicWork;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Start time of the last build of each job with {@link PollingTriglavTrigger}, keyed by job full name.
+ * <p>
+ * Filled by {@link RunListenerImpl} and persisted to {@code $JENKINS_HOME/polling-triglav-last-builds.xml},
+ * so that the alternative execution check does not load build records. A job missing from the index
+ * (e.g. built before this index existed) is looked up from its build records once.
+ */
+public class LastBuildIndex
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final String FILE_NAME = "polling-triglav-last-builds.xml";
+    private static final long NEVER_BUILT = 0L;
+
+    private static volatile LastBuildIndex instance;
+
+    public static LastBuildIndex get()
+    {
+        LastBuildIndex index = instance;
+        if (index != null) {
+            return index;
+        }
+        synchronized (LastBuildIndex.class) {
+            if (instance == null) {
+                instance = new LastBuildIndex(new XmlFile(new File(Jenkins.getInstance().getRootDir(), FILE_NAME)));
+            }
+            return instance;
+        }
+    }
+
+    private final XmlFile file;
+    private final Map<String, Long> lastBuildStartMillis = new ConcurrentHashMap<>();
+    private volatile boolean isDirty = false;
+
+    LastBuildIndex(XmlFile file)
+    {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @return start time of the last build, or null if the job has never been built.
+     */
+    public Date lastBuildDate(JenkinsJob jenkinsJob)
+    {
+        Long millis = lastBuildStartMillis.get(jenkinsJob.name());
+        if (millis == null) {
+            Date lastBuildDate = jenkinsJob.getLastBuildDateFromBuildRecords();
+            millis = lastBuildDate == null ? NEVER_BUILT : lastBuildDate.getTime();
+            record(jenkinsJob.name(), millis);
+        }
+        return millis == NEVER_BUILT ? null : new Date(millis);
+    }
+
+    public void record(String jobFullName, long startMillis)
+    {
+        Long previous = lastBuildStartMillis.get(jobFullName);
+        if (previous != null && previous >= startMillis) {
+            return;
+        }
+        lastBuildStartMillis.put(jobFullName, startMillis);
+        isDirty = true;
+    }
+
+    public void rename(String oldFullName, String newFullName)
+    {
+        Long millis = lastBuildStartMillis.remove(oldFullName);
+        if (millis != null) {
+            lastBuildStartMillis.put(newFullName, millis);
+            isDirty = true;
+        }
+    }
+
+    public void remove(String jobFullName)
+    {
+        if (lastBuildStartMillis.remove(jobFullName) != null) {
+            isDirty = true;
+        }
+    }
+
+    public synchronized void save()
+    {
+        if (!isDirty) {
+            return;
+        }
+        isDirty = false;
+        try {
+            file.write(new HashMap<>(lastBuildStartMillis));
+        }
+        catch (IOException e) {
+            isDirty = true;
+            logger.log(Level.WARNING, String.format("Failed to save %s: %s", file, e.getMessage()), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load()
+    {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            Object loaded = file.read();
+            if (loaded instanceof Map) {
+                lastBuildStartMillis.putAll((Map<String, Long>) loaded);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // Rebuilt lazily from build records.
+            logger.log(Level.WARNING, String.format("Failed to load %s: %s", file, e.getMessage()), e);
+            lastBuildStartMillis.clear();
+        }
+    }
+
+    @Extension
+    public static final class RunListenerImpl
+            extends RunListener<AbstractBuild>
+    {
+        @Override
+        public void onStarted(AbstractBuild build, TaskListener listener)
+        {
+            AbstractProject project = build.getProject();
+            if (project.getTrigger(PollingTriglavTrigger.class) == null) {
+                return;
+            }
+            LastBuildIndex.get().record(project.getFullName(), ((Run) build).getTimeInMillis());
+        }
+    }
+
+    @Extension
+    public static final class SaveWork
+            extends PeriodicWork
+    {
+        @Override
+        public long getRecurrencePeriod()
+        {
+            return java.util.concurrent.TimeUnit.SECONDS.toMillis(PollingTriglavTrigger.getSaveIntervalSeconds());
+        }
+
+        @Override
+        protected void doRun()
+        {
+            LastBuildIndex.get().save();
+        }
+    }
+}
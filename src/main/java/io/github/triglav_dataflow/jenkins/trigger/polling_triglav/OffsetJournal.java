@@ -0,0 +1,310 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Plugin-owned store of job message offsets, kept apart from job config.xml.
+ * <p>
+ * Offsets are appended to {@code $JENKINS_HOME/polling-triglav-offsets.journal} as fixed-size
+ * records of (Triglav Job ID, offset, CRC32). On load the journal is memory-mapped and replayed up to
+ * the first broken record, which is where a crash interrupted the last append. The journal is
+ * compacted into one record per job when it has grown well beyond the number of live jobs.
+ */
+public class OffsetJournal
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final String FILE_NAME = "polling-triglav-offsets.journal";
+    private static final int MAGIC = 0x54474c4f; // "TGLO"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 20;
+    private static final long TOMBSTONE = -1L;
+    private static final int MIN_RECORDS_TO_COMPACT = 1024;
+
+    private static volatile OffsetJournal instance;
+
+    public static OffsetJournal get()
+    {
+        OffsetJournal journal = instance;
+        if (journal != null) {
+            return journal;
+        }
+        synchronized (OffsetJournal.class) {
+            if (instance == null) {
+                instance = new OffsetJournal(new File(Jenkins.getInstance().getRootDir(), FILE_NAME));
+            }
+            return instance;
+        }
+    }
+
+    private final File file;
+    private final Map<Long, Long> offsets = new ConcurrentHashMap<>();
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private FileChannel channel;
+    private long numRecords = 0L;
+    private boolean isDirty = false;
+
+    OffsetJournal(File file)
+    {
+        this.file = file;
+        try {
+            load();
+        }
+        catch (IOException e) {
+            // Offsets in job config.xml are used instead.
+            logger.log(Level.WARNING, String.format("Failed to load %s: %s", file, e.getMessage()), e);
+            closeQuietly();
+            offsets.clear();
+        }
+    }
+
+    /**
+     * @return the offset, or null if the job has no record.
+     */
+    public Long offset(long triglavJobId)
+    {
+        return offsets.get(triglavJobId);
+    }
+
+    public synchronized void put(long triglavJobId, long offset)
+    {
+        Long current = offsets.get(triglavJobId);
+        if (current != null && current == offset) {
+            return;
+        }
+        offsets.put(triglavJobId, offset);
+        append(triglavJobId, offset);
+    }
+
+    public synchronized void remove(long triglavJobId)
+    {
+        if (offsets.remove(triglavJobId) != null) {
+            append(triglavJobId, TOMBSTONE);
+        }
+    }
+
+    /**
+     * Forget the offset of a Triglav job which has been unregistered. Never call this for a job still polled.
+     */
+    public void remove(String triglavJobId)
+    {
+        try {
+            remove(Long.parseLong(triglavJobId));
+        }
+        catch (NumberFormatException e) {
+            logger.fine(String.format("Invalid Triglav Job ID: %s", triglavJobId));
+        }
+    }
+
+    /**
+     * Force appended records to the disk, and compact the journal if it has grown enough.
+     */
+    public synchronized void sync()
+    {
+        try {
+            if (isDirty && channel != null) {
+                long startNanos = System.nanoTime();
+                channel.force(false);
+                isDirty = false;
+                TriglavMetrics.observeMillis("offset_journal_sync_duration_ms", TriglavMetrics.elapsedMillis(startNanos));
+            }
+            if (numRecords > Math.max(MIN_RECORDS_TO_COMPACT, 4L * offsets.size())) {
+                compact();
+            }
+        }
+        catch (IOException e) {
+            logger.log(Level.WARNING, String.format("Failed to sync %s: %s", file, e.getMessage()), e);
+        }
+    }
+
+    private void load()
+            throws IOException
+    {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            channel.truncate(0L);
+            writeHeader(channel);
+            return;
+        }
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException(String.format("%s is not an offset journal.", file));
+        }
+        byte[] payload = new byte[RECORD_SIZE - 4];
+        while (buffer.remaining() >= RECORD_SIZE) {
+            buffer.get(payload);
+            int checksum = buffer.getInt();
+            if (checksum != checksum(payload)) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            long triglavJobId = record.getLong();
+            long offset = record.getLong();
+            if (offset == TOMBSTONE) {
+                offsets.remove(triglavJobId);
+            }
+            else {
+                offsets.put(triglavJobId, offset);
+            }
+            numRecords++;
+        }
+
+        long validSize = HEADER_SIZE + numRecords * RECORD_SIZE;
+        if (validSize < size) {
+            logger.warning(String.format("Truncate broken records of %s from %d bytes to %d bytes.", file, size, validSize));
+            channel.truncate(validSize);
+        }
+        channel.position(validSize);
+        logger.fine(String.format("Loaded %d offsets from %d records of %s.", offsets.size(), numRecords, file));
+    }
+
+    private void append(long triglavJobId, long offset)
+    {
+        if (channel == null) {
+            return;
+        }
+        recordBuffer.clear();
+        recordBuffer.putLong(triglavJobId);
+        recordBuffer.putLong(offset);
+        recordBuffer.putInt(checksum(recordBuffer.array(), RECORD_SIZE - 4));
+        recordBuffer.flip();
+        try {
+            while (recordBuffer.hasRemaining()) {
+                channel.write(recordBuffer);
+            }
+            TriglavMetrics.increment("offset_journal_appends_total");
+            numRecords++;
+            isDirty = true;
+        }
+        catch (IOException e) {
+            logger.log(Level.WARNING, String.format("Failed to append to %s: %s", file, e.getMessage()), e);
+        }
+    }
+
+    private void compact()
+            throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        long compacted = 0L;
+        try (FileChannel out = new RandomAccessFile(tmp, "rw").getChannel()) {
+            out.truncate(0L);
+            writeHeader(out);
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+            for (Map.Entry<Long, Long> entry : offsets.entrySet()) {
+                buffer.clear();
+                buffer.putLong(entry.getKey());
+                buffer.putLong(entry.getValue());
+                buffer.putInt(checksum(buffer.array(), RECORD_SIZE - 4));
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                compacted++;
+            }
+            out.force(true);
+        }
+
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            // Keep appending to the original journal, which is still open.
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+        FileChannel replaced = channel;
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            channel.position(channel.size());
+        }
+        catch (IOException e) {
+            // The original journal has been replaced, so appending to it would be lost.
+            channel = replaced;
+            closeQuietly();
+            throw e;
+        }
+        try {
+            replaced.close();
+        }
+        catch (IOException e) {
+            logger.fine(String.format("Failed to close %s: %s", file, e.getMessage()));
+        }
+        logger.fine(String.format("Compacted %s from %d records to %d records.", file, numRecords, compacted));
+        numRecords = compacted;
+        isDirty = false;
+    }
+
+    private void closeQuietly()
+    {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            logger.fine(String.format("Failed to close %s: %s", file, e.getMessage()));
+        }
+        channel = null;
+    }
+
+    private static void writeHeader(FileChannel channel)
+            throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+    }
+
+    private static int checksum(byte[] bytes)
+    {
+        return checksum(bytes, bytes.length);
+    }
+
+    private static int checksum(byte[] bytes, int length)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    @Extension
+    public static final class SyncWork
+            extends PeriodicWork
+    {
+        @Override
+        public long getRecurrencePeriod()
+        {
+            return java.util.concurrent.TimeUnit.SECONDS.toMillis(PollingTriglavTrigger.getSaveIntervalSeconds());
+        }
+
+        @Override
+        protected void doRun()
+        {
+            OffsetJournal.get().sync();
+        }
+    }
+}
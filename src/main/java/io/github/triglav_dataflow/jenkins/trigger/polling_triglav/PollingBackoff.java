@@ -0,0 +1,82 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+/**
+ * Adaptive polling interval of a trigger.
+ * <p>
+ * The interval stays at the minimum after the first empty polling and doubles on each further consecutive one
+ * up to the maximum, so a single quiet polling does not delay the next one. It goes back to the minimum
+ * as soon as a job message is found. A failed polling changes neither.
+ * Cron ticks before the next polling time are skipped.
+ */
+public class PollingBackoff
+{
+    /**
+     * Cron ticks do not fire exactly on time, so a tick slightly before the next polling time is regarded as due.
+     */
+    private static final long TOLERANCE_MILLIS = 5000L;
+    private static final int MAX_SHIFT = 30;
+
+    private int consecutiveEmptyPolls = 0;
+    private long nextPollingTimeMillis = 0L;
+
+    public synchronized boolean isDue(long nowMillis)
+    {
+        return nowMillis + TOLERANCE_MILLIS >= nextPollingTimeMillis;
+    }
+
+    /**
+     * @param pollingTimeMillis when the polling started.
+     * @param hasFoundMessages true if at least one job message is consumed.
+     */
+    public synchronized void record(long pollingTimeMillis, boolean hasFoundMessages, long minIntervalSeconds, long maxIntervalSeconds)
+    {
+        if (hasFoundMessages) {
+            consecutiveEmptyPolls = 0;
+        }
+        else if (consecutiveEmptyPolls < MAX_SHIFT) {
+            consecutiveEmptyPolls++;
+        }
+        nextPollingTimeMillis = pollingTimeMillis + intervalSeconds(minIntervalSeconds, maxIntervalSeconds) * 1000L;
+    }
+
+    /**
+     * Record a polling which failed, e.g. because Triglav is down. The interval is kept as it is,
+     * so that an outage does not push jobs to the maximum interval.
+     *
+     * @param pollingTimeMillis when the polling started.
+     */
+    public synchronized void recordFailure(long pollingTimeMillis, long minIntervalSeconds, long maxIntervalSeconds)
+    {
+        nextPollingTimeMillis = pollingTimeMillis + intervalSeconds(minIntervalSeconds, maxIntervalSeconds) * 1000L;
+    }
+
+    /**
+     * Poll on the next cron tick regardless of the current interval.
+     */
+    public synchronized void reset()
+    {
+        consecutiveEmptyPolls = 0;
+        nextPollingTimeMillis = 0L;
+    }
+
+    public synchronized int getConsecutiveEmptyPolls()
+    {
+        return consecutiveEmptyPolls;
+    }
+
+    public synchronized long getNextPollingTimeMillis()
+    {
+        return nextPollingTimeMillis;
+    }
+
+    private long intervalSeconds(long minIntervalSeconds, long maxIntervalSeconds)
+    {
+        long min = Math.max(1L, minIntervalSeconds);
+        long max = Math.max(min, maxIntervalSeconds);
+        long interval = min << Math.min(Math.max(0, consecutiveEmptyPolls - 1), MAX_SHIFT);
+        if (interval < min || interval > max) {
+            return max;
+        }
+        return interval;
+    }
+}
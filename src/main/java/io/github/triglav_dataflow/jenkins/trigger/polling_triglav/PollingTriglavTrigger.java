@@ -9,6 +9,8 @@ import com.thoughtworks.xstream.converters.Converter;
 import com.thoughtworks.xstream.converters.reflection.PureJavaReflectionProvider;
 import com.thoughtworks.xstream.mapper.Mapper;
 import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
 import hudson.model.BuildableItem;
 import hudson.model.Item;
 import hudson.triggers.Trigger;
@@ -26,14 +28,18 @@ import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.Nullable;
 
-import java.util.Calendar;
-import java.util.Date;
+import java.io.ObjectStreamException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import static io.github.triglav_dataflow.jenkins.trigger.polling_triglav.TriglavClient.getDefaultConfigurable;
+import static org.apache.commons.lang.StringUtils.isBlank;
 
 public class PollingTriglavTrigger
         extends Trigger<BuildableItem>
@@ -78,6 +84,91 @@ public class PollingTriglavTrigger
         return getClassDescriptor().getMaxEnqueueCount();
     }
 
+    public static int getPollingThreads()
+    {
+        return getClassDescriptor().getPollingThreads();
+    }
+
+    public static long getMinPollingIntervalSeconds()
+    {
+        return getClassDescriptor().getMinPollingIntervalSeconds();
+    }
+
+    public static long getMaxPollingIntervalSeconds()
+    {
+        return getClassDescriptor().getMaxPollingIntervalSeconds();
+    }
+
+    public static int getRegistrationThreads()
+    {
+        return getClassDescriptor().getRegistrationThreads();
+    }
+
+    public static long getCleanupTimeoutSeconds()
+    {
+        return getClassDescriptor().getCleanupTimeoutSeconds();
+    }
+
+    public static long getSweepIntervalMinutes()
+    {
+        return getClassDescriptor().getSweepIntervalMinutes();
+    }
+
+    public static int getSaveBatchSize()
+    {
+        return getClassDescriptor().getSaveBatchSize();
+    }
+
+    public static long getSaveIntervalSeconds()
+    {
+        return getClassDescriptor().getSaveIntervalSeconds();
+    }
+
+    public static int getCircuitBreakerFailureThreshold()
+    {
+        return getClassDescriptor().getCircuitBreakerFailureThreshold();
+    }
+
+    public static long getCircuitBreakerOpenSeconds()
+    {
+        return getClassDescriptor().getCircuitBreakerOpenSeconds();
+    }
+
+    public static int getRetryMaxAttempts()
+    {
+        return getClassDescriptor().getRetryMaxAttempts();
+    }
+
+    public static long getRetryBaseDelayMillis()
+    {
+        return getClassDescriptor().getRetryBaseDelayMillis();
+    }
+
+    public static long getRetryMaxTotalDelayMillis()
+    {
+        return getClassDescriptor().getRetryMaxTotalDelayMillis();
+    }
+
+    public static String getNotificationToken()
+    {
+        return getClassDescriptor().getNotificationToken();
+    }
+
+    public static boolean isAsyncPolling()
+    {
+        return getClassDescriptor().isAsyncPolling();
+    }
+
+    public static int getMaxIdleConnections()
+    {
+        return getClassDescriptor().getMaxIdleConnections();
+    }
+
+    public static long getKeepAliveSeconds()
+    {
+        return getClassDescriptor().getKeepAliveSeconds();
+    }
+
     @Override
     public DescriptorImpl getDescriptor()
     {
@@ -97,7 +188,19 @@ public class PollingTriglavTrigger
     private final String logicalOp;
     private final long spanInDays;
     private final List<TriglavResourceConfig> resourceConfigs;
+    private final long minPollingIntervalSeconds;
+    private final long maxPollingIntervalSeconds;
+    private String registeredTimeZone;
+    private String registeredFingerprint;
     private final Parameters parameters;
+    /**
+     * Registrations of stopped triggers by job full name. The configuration form does not carry them,
+     * so a trigger rebuilt from the form takes them over from the trigger it replaces in {@link #start}.
+     */
+    private static final ConcurrentMap<String, Registered> stoppedRegistrations = new ConcurrentHashMap<>();
+    private transient PollingBackoff backoff;
+    private transient ConsumerLag consumerLag;
+    private transient volatile TriggerConfigSnapshot config;
 
     static Logger getLogger()
     {
@@ -117,7 +220,9 @@ public class PollingTriglavTrigger
             String alternativeExecutionTime,
             String logicalOp,
             long spanInDays,
-            List<TriglavResourceConfig> resourceConfigs)
+            List<TriglavResourceConfig> resourceConfigs,
+            long minPollingIntervalSeconds,
+            long maxPollingIntervalSeconds)
             throws ANTLRException
     {
         super(getCrontabSpec());
@@ -133,7 +238,10 @@ public class PollingTriglavTrigger
         this.logicalOp = logicalOp;
         this.spanInDays = spanInDays;
         this.resourceConfigs = resourceConfigs;
+        this.minPollingIntervalSeconds = minPollingIntervalSeconds;
+        this.maxPollingIntervalSeconds = maxPollingIntervalSeconds;
         this.parameters = new Parameters(this);
+        this.config = TriggerConfigSnapshot.of(this);
     }
 
     /**
@@ -158,9 +266,23 @@ public class PollingTriglavTrigger
         this.logicalOp = "or";
         this.spanInDays = 32L;
         this.resourceConfigs = Lists.newArrayList();
+        this.minPollingIntervalSeconds = 0L;
+        this.maxPollingIntervalSeconds = 0L;
         this.parameters = new Parameters(this);
     }
 
+    /**
+     * Fields are set by XStream after the default constructor, so the snapshot is built here.
+     */
+    @Override
+    protected Object readResolve()
+            throws ObjectStreamException
+    {
+        super.readResolve();
+        this.config = TriggerConfigSnapshot.of(this);
+        return this;
+    }
+
     @SuppressWarnings("unused") // called reflectively by XStream
     public String getJobId()
     {
@@ -221,6 +343,30 @@ public class PollingTriglavTrigger
         return timeZone;
     }
 
+    @SuppressWarnings("unused") // called reflectively by XStream
+    public String getRegisteredTimeZone()
+    {
+        return registeredTimeZone;
+    }
+
+    @SuppressWarnings("unused") // called reflectively by XStream
+    public synchronized void setRegisteredTimeZone(String registeredTimeZone)
+    {
+        this.registeredTimeZone = registeredTimeZone;
+    }
+
+    @SuppressWarnings("unused") // called reflectively by XStream
+    public String getRegisteredFingerprint()
+    {
+        return registeredFingerprint;
+    }
+
+    @SuppressWarnings("unused") // called reflectively by XStream
+    public synchronized void setRegisteredFingerprint(String registeredFingerprint)
+    {
+        this.registeredFingerprint = registeredFingerprint;
+    }
+
     @SuppressWarnings("unused") // called reflectively by XStream
     public String getTimeUnit()
     {
@@ -251,17 +397,145 @@ public class PollingTriglavTrigger
         return resourceConfigs;
     }
 
+    @SuppressWarnings("unused") // called reflectively by XStream
+    public long getMinPollingIntervalSeconds()
+    {
+        return minPollingIntervalSeconds;
+    }
+
+    @SuppressWarnings("unused") // called reflectively by XStream
+    public long getMaxPollingIntervalSeconds()
+    {
+        return maxPollingIntervalSeconds;
+    }
+
+    @Override
+    public void start(BuildableItem project, boolean newInstance)
+    {
+        super.start(project, newInstance);
+        Registered registered = stoppedRegistrations.remove(project.getFullName());
+        if (newInstance && registered != null) {
+            takeOver(registered);
+        }
+        AlternativeExecutionScheduler.start(this);
+        if (!newInstance && (jobId == null || jobId.isEmpty())) {
+            // Loaded without a Triglav job id, e.g. created while Jenkins was down. Registered after all jobs are loaded.
+            BulkRegistration.addPending(project.getFullName());
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        AlternativeExecutionScheduler.stop(this);
+        if (job != null && !isBlank(jobId)) {
+            stoppedRegistrations.put(job.getFullName(), new Registered(jobId, registeredTimeZone, registeredFingerprint));
+        }
+        super.stop();
+    }
+
+    /**
+     * Forget the registration of a stopped trigger, e.g. when the job is deleted.
+     */
+    static void forgetStoppedRegistration(String jobFullName)
+    {
+        stoppedRegistrations.remove(jobFullName);
+    }
+
+    private synchronized void takeOver(Registered registered)
+    {
+        if (!registered.jobId.equals(jobId)) {
+            // Registered as another Triglav job.
+            return;
+        }
+        if (registeredTimeZone == null) {
+            registeredTimeZone = registered.timeZone;
+        }
+        if (registeredFingerprint == null) {
+            registeredFingerprint = registered.fingerprint;
+        }
+    }
+
+    private static final class Registered
+    {
+        private final String jobId;
+        private final String timeZone;
+        private final String fingerprint;
+
+        private Registered(String jobId, String timeZone, String fingerprint)
+        {
+            this.jobId = jobId;
+            this.timeZone = timeZone;
+            this.fingerprint = fingerprint;
+        }
+    }
+
     @Override
     public void run()
     {
+        if (!backoff().isDue(System.currentTimeMillis())) {
+            return;
+        }
         ItemRunner.runIfPossible(this, job);
     }
 
+    /**
+     * Poll right away regardless of the polling interval, e.g. when Triglav notifies new job messages.
+     *
+     * @return true if a polling is submitted, false if it is skipped or runs right after the polling in progress.
+     */
+    public boolean runNow()
+    {
+        backoff().reset();
+        return ItemRunner.runNow(this, job);
+    }
+
+    @Override
+    public Collection<? extends Action> getProjectActions()
+    {
+        if (!(job instanceof AbstractProject)) {
+            return Collections.emptyList();
+        }
+        AbstractProject project = (AbstractProject) job;
+        return Lists.<Action>newArrayList(new ConsumerLagAction(project, this), new ReconcileStatusAction(project));
+    }
+
+    BuildableItem job()
+    {
+        return job;
+    }
+
     public Parameters parameters()
     {
         return parameters;
     }
 
+    TriggerConfigSnapshot config()
+    {
+        TriggerConfigSnapshot snapshot = config;
+        if (snapshot == null) {
+            snapshot = TriggerConfigSnapshot.of(this);
+            config = snapshot;
+        }
+        return snapshot;
+    }
+
+    synchronized PollingBackoff backoff()
+    {
+        if (backoff == null) {
+            backoff = new PollingBackoff();
+        }
+        return backoff;
+    }
+
+    synchronized ConsumerLag consumerLag()
+    {
+        if (consumerLag == null) {
+            consumerLag = new ConsumerLag();
+        }
+        return consumerLag;
+    }
+
     /**
      * Wrap Plugin's parameters for usability, flexibility
      * and expandability of utility methods.
@@ -290,9 +564,28 @@ public class PollingTriglavTrigger
             plugin.setJobId(jobId);
         }
 
+        /**
+         * The offset of the old Triglav job id is kept in {@link OffsetJournal}, because a copied job still has the id
+         * of its source job here. It is removed when the Triglav job is unregistered.
+         */
         public void initializeJobId()
         {
             setJobId("");
+            setRegisteredFingerprint(null);
+        }
+
+        private Optional<Long> numericJobId()
+        {
+            String id = jobId();
+            if (id == null || id.isEmpty()) {
+                return Optional.absent();
+            }
+            try {
+                return Optional.of(Long.valueOf(id));
+            }
+            catch (NumberFormatException e) {
+                return Optional.absent();
+            }
         }
 
         public String username()
@@ -322,17 +615,36 @@ public class PollingTriglavTrigger
 
         public Credential.AuthenticatorEnum authenticator()
         {
+            Credential.AuthenticatorEnum authenticator = plugin.config().authenticator();
+            if (authenticator != null) {
+                return authenticator;
+            }
             return Credential.AuthenticatorEnum.valueOf(plugin.getAuthenticator());
         }
 
+        /**
+         * The offset in {@link OffsetJournal} takes precedence over the one in config.xml,
+         * which is only updated when the job is saved for other reasons.
+         */
         public long jobMessageOffset()
         {
+            Optional<Long> id = numericJobId();
+            if (id.isPresent()) {
+                Long offset = OffsetJournal.get().offset(id.get());
+                if (offset != null) {
+                    return offset;
+                }
+            }
             return plugin.getJobMessageOffset();
         }
 
         public void setJobMessageOffset(long jobMessageOffset)
         {
             plugin.setJobMessageOffset(jobMessageOffset);
+            Optional<Long> id = numericJobId();
+            if (id.isPresent()) {
+                OffsetJournal.get().put(id.get(), jobMessageOffset);
+            }
         }
 
         public void initializeJobMessageOffset()
@@ -349,50 +661,46 @@ public class PollingTriglavTrigger
 
         public String timeZone()
         {
+            String timeZone = plugin.config().timeZone();
+            if (timeZone != null) {
+                return timeZone;
+            }
             return ZoneIDConverter.toThreeLetterISO8601(plugin.getTimeZone());
         }
 
-        public TimeUnit timeUnit()
+        /**
+         * @return the offset sent to Triglav at the last registration, or null if unknown.
+         */
+        public String registeredTimeZone()
         {
-            return TimeUnit.valueOf(plugin.getTimeUnit().toUpperCase());
+            return plugin.getRegisteredTimeZone();
         }
 
-        public Date alternativeExecutionTime()
+        public void setRegisteredTimeZone(String registeredTimeZone)
         {
-            String alternativeExecutionTimeString = plugin.getAlternativeExecutionTime();
-            Date nextAlternativeExecutionTime = null;
+            plugin.setRegisteredTimeZone(registeredTimeZone);
+        }
 
-            try {
-                String[] hourMinutes = alternativeExecutionTimeString.split(":");
-                Calendar alternativeTimeCalendar = Calendar.getInstance();
-                alternativeTimeCalendar.set(Calendar.SECOND, 0);
+        /**
+         * @return the fingerprint of what was sent to Triglav at the last registration, or null if unknown.
+         */
+        public String registeredFingerprint()
+        {
+            return plugin.getRegisteredFingerprint();
+        }
 
-                if (hourMinutes.length == 1) {
-                    Integer minutes = Integer.valueOf(hourMinutes[0]);
-                    alternativeTimeCalendar.set(Calendar.MINUTE, minutes);
-                }
-                else if (hourMinutes.length == 2) {
-                    Integer hours = Integer.valueOf(hourMinutes[0]);
-                    Integer minutes = Integer.valueOf(hourMinutes[1]);
-                    alternativeTimeCalendar.set(Calendar.HOUR_OF_DAY, hours);
-                    alternativeTimeCalendar.set(Calendar.MINUTE, minutes);
-                }
-                else {
-                    logger.fine(
-                        String.format("Error parsing alternativeExecutionTime: %s", alternativeExecutionTimeString)
-                    );
-                    return null;
-                }
+        public void setRegisteredFingerprint(String registeredFingerprint)
+        {
+            plugin.setRegisteredFingerprint(registeredFingerprint);
+        }
 
-                nextAlternativeExecutionTime = alternativeTimeCalendar.getTime();
-            }
-            catch (Exception e) {
-                logger.fine(
-                    String.format("Error parsing alternativeExecutionTime: %s, alternativeExecutionTime: %s", e.getMessage(), alternativeExecutionTimeString)
-                );
+        public TimeUnit timeUnit()
+        {
+            TimeUnit timeUnit = plugin.config().timeUnit();
+            if (timeUnit != null) {
+                return timeUnit;
             }
-
-            return nextAlternativeExecutionTime;
+            return TimeUnit.valueOf(plugin.getTimeUnit().toUpperCase());
         }
 
         public String logicalOp()
@@ -405,6 +713,33 @@ public class PollingTriglavTrigger
             return plugin.getSpanInDays();
         }
 
+        /**
+         * @return the interval used while job messages keep coming. The global value is used if not configured.
+         */
+        public long minPollingIntervalSeconds()
+        {
+            if (plugin.getMinPollingIntervalSeconds() > 0) {
+                return plugin.getMinPollingIntervalSeconds();
+            }
+            return PollingTriglavTrigger.getMinPollingIntervalSeconds();
+        }
+
+        /**
+         * @return the upper bound of the interval after consecutive empty pollings. The global value is used if not configured.
+         */
+        public long maxPollingIntervalSeconds()
+        {
+            if (plugin.getMaxPollingIntervalSeconds() > 0) {
+                return plugin.getMaxPollingIntervalSeconds();
+            }
+            return PollingTriglavTrigger.getMaxPollingIntervalSeconds();
+        }
+
+        public ConsumerLag consumerLag()
+        {
+            return plugin.consumerLag();
+        }
+
         public void initializeMinimumRequired()
         {
             initializeApiKey();
@@ -513,6 +848,23 @@ public class PollingTriglavTrigger
         private String adminPassword = "";
         private String adminApiKey = "";
         private int maxEnqueueCount = 10;
+        private int pollingThreads = 100;
+        private boolean asyncPolling = false;
+        private long minPollingIntervalSeconds = 60L;
+        private String notificationToken = "";
+        private int registrationThreads = 20;
+        private long cleanupTimeoutSeconds = 30L;
+        private long sweepIntervalMinutes = 60L;
+        private int saveBatchSize = 100;
+        private int circuitBreakerFailureThreshold = 5;
+        private int retryMaxAttempts = 3;
+        private long retryBaseDelayMillis = 200L;
+        private long retryMaxTotalDelayMillis = 3000L;
+        private long circuitBreakerOpenSeconds = 30L;
+        private long saveIntervalSeconds = 10L;
+        private long maxPollingIntervalSeconds = 600L;
+        private int maxIdleConnections = 20;
+        private long keepAliveSeconds = 300L;
 
         public String getCrontabSpec()
         {
@@ -549,6 +901,106 @@ public class PollingTriglavTrigger
             return maxEnqueueCount;
         }
 
+        public int getPollingThreads()
+        {
+            return pollingThreads;
+        }
+
+        public boolean isAsyncPolling()
+        {
+            return asyncPolling;
+        }
+
+        public int getRegistrationThreads()
+        {
+            return registrationThreads;
+        }
+
+        public long getCleanupTimeoutSeconds()
+        {
+            return cleanupTimeoutSeconds;
+        }
+
+        public long getSweepIntervalMinutes()
+        {
+            return sweepIntervalMinutes;
+        }
+
+        public int getSaveBatchSize()
+        {
+            return saveBatchSize;
+        }
+
+        public long getSaveIntervalSeconds()
+        {
+            return saveIntervalSeconds;
+        }
+
+        public int getCircuitBreakerFailureThreshold()
+        {
+            return circuitBreakerFailureThreshold;
+        }
+
+        public long getCircuitBreakerOpenSeconds()
+        {
+            return circuitBreakerOpenSeconds;
+        }
+
+        public int getRetryMaxAttempts()
+        {
+            return retryMaxAttempts;
+        }
+
+        public long getRetryBaseDelayMillis()
+        {
+            return retryBaseDelayMillis;
+        }
+
+        public long getRetryMaxTotalDelayMillis()
+        {
+            return retryMaxTotalDelayMillis;
+        }
+
+        public String getCircuitBreakerStatus()
+        {
+            return CircuitBreaker.forEndpoint(triglavApiUrl).toString();
+        }
+
+        public String getNotificationToken()
+        {
+            return notificationToken;
+        }
+
+        public long getMinPollingIntervalSeconds()
+        {
+            return minPollingIntervalSeconds;
+        }
+
+        public long getMaxPollingIntervalSeconds()
+        {
+            return maxPollingIntervalSeconds;
+        }
+
+        public int getPollingQueueDepth()
+        {
+            return ItemRunner.getQueueDepth();
+        }
+
+        public int getPollingActiveCount()
+        {
+            return ItemRunner.getActiveCount();
+        }
+
+        public int getMaxIdleConnections()
+        {
+            return maxIdleConnections;
+        }
+
+        public long getKeepAliveSeconds()
+        {
+            return keepAliveSeconds;
+        }
+
         /**
          * In order to load the persisted global configuration, you have to
          * call load() in the constructor.
@@ -582,9 +1034,63 @@ public class PollingTriglavTrigger
             if (formData.getInt("maxEnqueueCount") > 0) {
                 maxEnqueueCount = formData.getInt("maxEnqueueCount");
             }
+            if (formData.getInt("pollingThreads") > 0) {
+                pollingThreads = formData.getInt("pollingThreads");
+            }
+            asyncPolling = formData.optBoolean("asyncPolling", false);
+            if (formData.getString("notificationToken") != null) {
+                notificationToken = formData.getString("notificationToken");
+            }
+            if (formData.getLong("minPollingIntervalSeconds") > 0) {
+                minPollingIntervalSeconds = formData.getLong("minPollingIntervalSeconds");
+            }
+            if (formData.getLong("maxPollingIntervalSeconds") > 0) {
+                maxPollingIntervalSeconds = formData.getLong("maxPollingIntervalSeconds");
+            }
+            if (formData.getInt("circuitBreakerFailureThreshold") > 0) {
+                circuitBreakerFailureThreshold = formData.getInt("circuitBreakerFailureThreshold");
+            }
+            if (formData.getLong("circuitBreakerOpenSeconds") > 0) {
+                circuitBreakerOpenSeconds = formData.getLong("circuitBreakerOpenSeconds");
+            }
+            if (formData.getInt("retryMaxAttempts") > 0) {
+                retryMaxAttempts = formData.getInt("retryMaxAttempts");
+            }
+            if (formData.getLong("retryBaseDelayMillis") > 0) {
+                retryBaseDelayMillis = formData.getLong("retryBaseDelayMillis");
+            }
+            if (formData.getLong("retryMaxTotalDelayMillis") >= 0) {
+                retryMaxTotalDelayMillis = formData.getLong("retryMaxTotalDelayMillis");
+            }
+            if (formData.getInt("registrationThreads") > 0) {
+                registrationThreads = formData.getInt("registrationThreads");
+            }
+            if (formData.getLong("cleanupTimeoutSeconds") > 0) {
+                cleanupTimeoutSeconds = formData.getLong("cleanupTimeoutSeconds");
+            }
+            if (formData.getLong("sweepIntervalMinutes") >= 0) {
+                sweepIntervalMinutes = formData.getLong("sweepIntervalMinutes");
+            }
+            if (formData.getInt("saveBatchSize") > 0) {
+                saveBatchSize = formData.getInt("saveBatchSize");
+            }
+            if (formData.getLong("saveIntervalSeconds") > 0) {
+                saveIntervalSeconds = formData.getLong("saveIntervalSeconds");
+            }
+            if (formData.getInt("maxIdleConnections") > 0) {
+                maxIdleConnections = formData.getInt("maxIdleConnections");
+            }
+            if (formData.getLong("keepAliveSeconds") > 0) {
+                keepAliveSeconds = formData.getLong("keepAliveSeconds");
+            }
             // ^Can also use req.bindJSON(this, formData);
             //  (easier when there are many fields; need set* methods for this, like setUseFrench)
             save();
+            // Triglav url or admin credential may be changed.
+            TriglavApiKeyCache.invalidateAll();
+            // Connection pool settings may be changed.
+            TriglavHttpClientRegistry.invalidateAll();
+            ItemRunner.resize(pollingThreads);
             return super.configure(req, formData);
         }
 
@@ -0,0 +1,382 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.model.AbstractProject;
+import io.github.triglav_dataflow.client.ApiException;
+import jenkins.model.Jenkins;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Applies configuration changes of jobs to Triglav in background, so that saving a job never waits for Triglav.
+ * <p>
+ * {@link ItemListener} only requests a job to be reconciled. The reconciliation reads the job, its trigger and
+ * {@link TriggerRegistry} when it runs, so a job requested several times before it runs is reconciled once with
+ * its latest state. A failed reconciliation is retried with exponential backoff up to {@link #MAX_ATTEMPTS} times,
+ * and the state is shown on the job page by {@link ReconcileStatusAction}.
+ */
+public class ReconcileQueue
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_RETRY_DELAY_MILLIS = 5000L;
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /**
+     * Jobs requested and not reconciled yet, or failed. Guarded by itself.
+     */
+    private static final Map<String, Status> statuses = new HashMap<>();
+    private static volatile ThreadPoolExecutor pool;
+
+    private ReconcileQueue()
+    {
+    }
+
+    private static ThreadPoolExecutor pool()
+    {
+        ThreadPoolExecutor p = pool;
+        if (p != null) {
+            return p;
+        }
+        synchronized (ReconcileQueue.class) {
+            if (pool == null) {
+                int numThreads = Math.max(1, PollingTriglavTrigger.getRegistrationThreads());
+                // The queue never holds more than one task per job because of Status#isScheduled.
+                pool = new ThreadPoolExecutor(
+                        numThreads, numThreads,
+                        60L, java.util.concurrent.TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactoryBuilder().setNameFormat("polling-triglav-reconcile-%d").setDaemon(true).build());
+                pool.allowCoreThreadTimeOut(true);
+            }
+            return pool;
+        }
+    }
+
+    public static void request(String jobFullName)
+    {
+        synchronized (statuses) {
+            Status status = statuses.get(jobFullName);
+            if (status == null) {
+                status = new Status();
+                statuses.put(jobFullName, status);
+            }
+            status.generation++;
+            status.attempts = 0;
+            status.error = null;
+            if (status.isScheduled) {
+                // The scheduled reconciliation sees the latest state, or runs again if it is running or the job is claimed.
+                return;
+            }
+            status.isScheduled = true;
+        }
+        submit(jobFullName);
+    }
+
+    /**
+     * Take the job for a registration made outside of this queue, e.g. by {@link BulkRegistration},
+     * so that the job is never registered by both at the same time. Requests made meanwhile are run on {@link #release}.
+     *
+     * @return false if the job is being reconciled or waits for it.
+     */
+    static boolean tryClaim(String jobFullName)
+    {
+        synchronized (statuses) {
+            Status status = statuses.get(jobFullName);
+            if (status != null && status.isScheduled) {
+                return false;
+            }
+            if (status == null) {
+                status = new Status();
+                statuses.put(jobFullName, status);
+            }
+            status.isScheduled = true;
+            status.isClaimed = true;
+            status.claimedGeneration = status.generation;
+            return true;
+        }
+    }
+
+    /**
+     * Give back the job taken by {@link #tryClaim}, reconciling it if it was requested meanwhile. Does nothing if not claimed.
+     */
+    static void release(String jobFullName)
+    {
+        synchronized (statuses) {
+            Status status = statuses.get(jobFullName);
+            if (status == null || !status.isClaimed) {
+                return;
+            }
+            status.isClaimed = false;
+            if (status.generation == status.claimedGeneration) {
+                statuses.remove(jobFullName);
+                return;
+            }
+        }
+        submit(jobFullName);
+    }
+
+    /**
+     * @return a copy of the status, or null if the job is reconciled.
+     */
+    public static Status status(String jobFullName)
+    {
+        synchronized (statuses) {
+            Status status = statuses.get(jobFullName);
+            return status == null ? null : status.copy();
+        }
+    }
+
+    public static int size()
+    {
+        synchronized (statuses) {
+            return statuses.size();
+        }
+    }
+
+    /**
+     * Wait for the reconciliations in the pool. The ones waiting for a retry are dropped with a warning,
+     * and are fixed after the next start by {@link BulkRegistration} or on shutdown by {@link TriglavCleanup}.
+     */
+    static void shutdown(long timeoutMillis)
+    {
+        ThreadPoolExecutor p = pool;
+        if (p != null) {
+            p.shutdown();
+            try {
+                p.awaitTermination(timeoutMillis, java.util.concurrent.TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (statuses) {
+            for (Map.Entry<String, Status> entry : statuses.entrySet()) {
+                if (entry.getValue().isScheduled) {
+                    logger.warning(String.format("Job: %s is not reconciled with Triglav before shutdown.", entry.getKey()));
+                }
+            }
+        }
+    }
+
+    private static void submit(final String jobFullName)
+    {
+        try {
+            pool().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    reconcileOnce(jobFullName);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            logger.warning(String.format("Job: %s is not reconciled because the pool is shut down.", jobFullName));
+            synchronized (statuses) {
+                Status status = statuses.get(jobFullName);
+                if (status != null) {
+                    status.isScheduled = false;
+                    status.error = "Jenkins is shutting down.";
+                }
+            }
+        }
+    }
+
+    private static void submitLater(final String jobFullName, long delayMillis)
+    {
+        try {
+            jenkins.util.Timer.get().schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    submit(jobFullName);
+                }
+            }, delayMillis, java.util.concurrent.TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            submit(jobFullName);
+        }
+    }
+
+    private static void reconcileOnce(String jobFullName)
+    {
+        long generation;
+        synchronized (statuses) {
+            Status status = statuses.get(jobFullName);
+            if (status == null) {
+                return;
+            }
+            generation = status.generation;
+        }
+
+        Exception error = null;
+        try {
+            reconcile(jobFullName);
+        }
+        catch (ApiException | RuntimeException e) {
+            error = e;
+        }
+
+        long retryDelayMillis;
+        synchronized (statuses) {
+            Status status = statuses.get(jobFullName);
+            if (status.generation != generation) {
+                // Requested again while running.
+                retryDelayMillis = 0L;
+            }
+            else if (error == null) {
+                statuses.remove(jobFullName);
+                return;
+            }
+            else {
+                status.attempts++;
+                status.error = String.valueOf(error.getMessage());
+                if (status.attempts >= MAX_ATTEMPTS) {
+                    status.isScheduled = false;
+                    logger.log(Level.WARNING, String.format("Failed to reconcile Job: %s with Triglav %d times, Error: %s",
+                            jobFullName, status.attempts, error.getMessage()), error);
+                    return;
+                }
+                retryDelayMillis = BASE_RETRY_DELAY_MILLIS << (status.attempts - 1);
+                logger.fine(String.format("Failed to reconcile Job: %s with Triglav, retry in %d ms. Error: %s",
+                        jobFullName, retryDelayMillis, error.getMessage()));
+            }
+        }
+        if (retryDelayMillis == 0L) {
+            submit(jobFullName);
+        }
+        else {
+            submitLater(jobFullName, retryDelayMillis);
+        }
+    }
+
+    /**
+     * Make Triglav and {@link TriggerRegistry} follow the current state of the job.
+     */
+    static void reconcile(String jobFullName)
+            throws ApiException
+    {
+        /*
+         * case 1: Already registered on Triglav: update, e.g. the job url after renaming or the resources.
+         * case 2: Not registered on Triglav, e.g. created or copied: register.
+         * case 3: Registered on Triglav, but the job is deleted or doesn't have this plugin anymore: unregister.
+         * case 4: Registered on Triglav with another id, e.g. deleted and created again before reconciled:
+         *   unregister the old one and register.
+         * case 5: Job is disabled: unregister.
+         */
+        TriggerRegistry registry = TriggerRegistry.get();
+        String registeredJobId = registry.get(jobFullName);
+        AbstractProject project = Jenkins.getInstance().getItemByFullName(jobFullName, AbstractProject.class);
+        PollingTriglavTrigger t = project == null ? null : (PollingTriglavTrigger) project.getTrigger(PollingTriglavTrigger.class);
+
+        if (t == null) {
+            // case 3
+            if (registeredJobId != null) {
+                logger.fine(String.format("Job: %s is deleted or its trigger is removed. Triglav job id was %s.",
+                        jobFullName, registeredJobId));
+                unregister(registeredJobId);
+                registry.remove(jobFullName);
+            }
+            return;
+        }
+
+        JenkinsJob jenkinsJob = new JenkinsJob(project);
+        String jobId = t.parameters().jobId();
+        if (registeredJobId != null && (jenkinsJob.isDisabled() || !registeredJobId.contentEquals(isBlank(jobId) ? "" : jobId))) {
+            // case 4 or case 5
+            logger.fine(String.format("Unregister Job: %s, Triglav Job ID: %s.", jobFullName, registeredJobId));
+            unregister(registeredJobId);
+            registry.remove(jobFullName);
+        }
+        if (jenkinsJob.isDisabled()) {
+            // case 5
+            if (!isBlank(jobId)) {
+                t.parameters().initializeMinimumRequired();
+                jenkinsJob.saveLater();
+            }
+            return;
+        }
+
+        // case 1, 2 or 4
+        if (registeredJobId != null && new TriglavJob(t.parameters(), null).isRegistrationUpToDate(jenkinsJob)) {
+            // e.g. only build steps or the description are changed.
+            logger.fine(String.format("Job: %s is not changed for Triglav. Skip updating.", jobFullName));
+            TriglavMetrics.increment("registrations_skipped_total");
+            return;
+        }
+        logger.fine(String.format("%s Job: %s.", isBlank(jobId) ? "Register" : "Update", jobFullName));
+        TriglavJob triglavJob = new TriglavJob(t.parameters(), TriglavClient.fromTriggerParameter(t.parameters()));
+        triglavJob.registerOrUpdate(jenkinsJob);
+        jenkinsJob.saveLater();
+        registry.put(jobFullName, t.parameters().jobId());
+        logger.fine(String.format("Reconciled Job: %s as a Triglav Job ID: %s.", jobFullName, t.parameters().jobId()));
+    }
+
+    private static void unregister(String jobId)
+            throws ApiException
+    {
+        try {
+            TriglavClient.fromTriggerAdminParameter().unregisterJob(jobId);
+        }
+        catch (ApiException e) {
+            if (e.getCode() != HTTP_NOT_FOUND) {
+                throw e;
+            }
+            // Already unregistered.
+        }
+        OffsetJournal.get().remove(jobId);
+    }
+
+    public static final class Status
+    {
+        private long generation = 0L;
+        private boolean isScheduled = false;
+        private boolean isClaimed = false;
+        private long claimedGeneration = 0L;
+        private int attempts = 0;
+        private String error;
+
+        private Status copy()
+        {
+            Status s = new Status();
+            s.generation = generation;
+            s.isScheduled = isScheduled;
+            s.isClaimed = isClaimed;
+            s.claimedGeneration = claimedGeneration;
+            s.attempts = attempts;
+            s.error = error;
+            return s;
+        }
+
+        /**
+         * @return true if the job will be reconciled, false if it has failed {@link #MAX_ATTEMPTS} times.
+         */
+        public boolean isPending()
+        {
+            return isScheduled;
+        }
+
+        public int getAttempts()
+        {
+            return attempts;
+        }
+
+        /**
+         * @return the error of the last attempt, or null.
+         */
+        public String getError()
+        {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+
+/**
+ * Shows on the job page whether the job is waiting for or has failed {@link ReconcileQueue}.
+ */
+public class ReconcileStatusAction
+        implements Action
+{
+    private final AbstractProject project;
+
+    public ReconcileStatusAction(AbstractProject project)
+    {
+        this.project = project;
+    }
+
+    @Override
+    public String getIconFileName()
+    {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+        return null;
+    }
+
+    @Override
+    public String getUrlName()
+    {
+        return null;
+    }
+
+    /**
+     * @return null if the job is reconciled with Triglav.
+     */
+    public ReconcileQueue.Status getStatus()
+    {
+        return ReconcileQueue.status(project.getFullName());
+    }
+
+    public int getMaxAttempts()
+    {
+        return ReconcileQueue.MAX_ATTEMPTS;
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import io.github.triglav_dataflow.client.ApiException;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed Triglav request is retried.
+ * <p>
+ * Delays grow exponentially from the base delay with full jitter, so that jobs failed at
+ * the same time do not retry in lockstep. {@code Retry-After} of 429 and 503 responses is
+ * honored. Each call has a budget of attempts and of total delay; a retry which would
+ * exceed the budget is not made.
+ */
+public class RetryPolicy
+{
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_BAD_GATEWAY = 502;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final Random random = new Random();
+
+    /**
+     * How safe it is to send the same request again.
+     */
+    public enum Idempotency
+    {
+        /**
+         * The request has the same effect however many times it is sent, e.g. fetching messages, deleting or updating a job.
+         */
+        IDEMPOTENT,
+        /**
+         * The request may create something twice, e.g. registering a new job.
+         * Retried only when Triglav has certainly not processed it.
+         */
+        NOT_IDEMPOTENT
+    }
+
+    private final Idempotency idempotency;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxTotalDelayMillis;
+    private int attempts = 0;
+    private long totalDelayMillis = 0L;
+
+    public RetryPolicy(Idempotency idempotency, int maxAttempts, long baseDelayMillis, long maxTotalDelayMillis)
+    {
+        this.idempotency = idempotency;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxTotalDelayMillis = maxTotalDelayMillis;
+    }
+
+    public static RetryPolicy fromGlobalConfiguration(Idempotency idempotency)
+    {
+        return new RetryPolicy(
+                idempotency,
+                PollingTriglavTrigger.getRetryMaxAttempts(),
+                PollingTriglavTrigger.getRetryBaseDelayMillis(),
+                PollingTriglavTrigger.getRetryMaxTotalDelayMillis());
+    }
+
+    /**
+     * @return a policy which never retries, for callers which must not wait, e.g. on polling threads.
+     */
+    public static RetryPolicy noRetry()
+    {
+        return new RetryPolicy(Idempotency.IDEMPOTENT, 1, 0L, 0L);
+    }
+
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    /**
+     * Record a failed attempt.
+     *
+     * @return milliseconds to wait before the next attempt, or -1 if the call must not be retried.
+     */
+    public long nextDelayMillis(ApiException e)
+    {
+        attempts++;
+        if (attempts >= maxAttempts || !isRetryable(e)) {
+            return -1L;
+        }
+
+        long exponential = baseDelayMillis << Math.min(attempts - 1, 20);
+        long delay = (long) (random.nextDouble() * exponential);
+        long retryAfter = retryAfterMillis(e.getResponseHeaders());
+        if (retryAfter > delay) {
+            delay = retryAfter;
+        }
+        if (totalDelayMillis + delay > maxTotalDelayMillis) {
+            return -1L;
+        }
+        totalDelayMillis += delay;
+        return delay;
+    }
+
+    private boolean isRetryable(ApiException e)
+    {
+        int code = e.getCode();
+        if (code == HTTP_TOO_MANY_REQUESTS || code == HTTP_SERVICE_UNAVAILABLE) {
+            // Triglav rejected the request without processing it.
+            return true;
+        }
+        if (code == 0 && isConnectionNotEstablished(e.getCause())) {
+            return true;
+        }
+        if (idempotency != Idempotency.IDEMPOTENT) {
+            return false;
+        }
+        return code == 0 || code == HTTP_BAD_GATEWAY || code == HTTP_GATEWAY_TIMEOUT;
+    }
+
+    private static boolean isConnectionNotEstablished(Throwable cause)
+    {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof NoRouteToHostException || t instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return milliseconds given by Retry-After as either delay-seconds or HTTP-date, or 0 if absent.
+     */
+    static long retryAfterMillis(Map<String, List<String>> headers)
+    {
+        if (headers == null) {
+            return 0L;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() == null || !RETRY_AFTER.equalsIgnoreCase(header.getKey())
+                    || header.getValue() == null || header.getValue().isEmpty()) {
+                continue;
+            }
+            String value = header.getValue().get(0).trim();
+            try {
+                return Math.max(0L, Long.parseLong(value) * 1000L);
+            }
+            catch (NumberFormatException e) {
+                // HTTP-date
+            }
+            try {
+                SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                return Math.max(0L, format.parse(value).getTime() - System.currentTimeMillis());
+            }
+            catch (ParseException e) {
+                return 0L;
+            }
+        }
+        return 0L;
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import io.github.triglav_dataflow.client.Credential;
+
+import java.util.TimeZone;
+
+/**
+ * Values of {@link PollingTriglavTrigger} parsed once when the trigger is constructed or loaded,
+ * so that pollings only read precomputed fields.
+ * <p>
+ * An invalid value is kept as null here and fails when it is used, as it did before.
+ */
+final class TriggerConfigSnapshot
+{
+    private final String zoneID;
+    private final TimeZone zone;
+    private final TimeUnit timeUnit;
+    private final Credential.AuthenticatorEnum authenticator;
+    /**
+     * null if alternativeExecutionTime is not configured or invalid.
+     */
+    private final AlternativeExecutionTime.HourMinutes alternativeExecutionTime;
+
+    private TriggerConfigSnapshot(
+            String zoneID,
+            TimeUnit timeUnit,
+            Credential.AuthenticatorEnum authenticator,
+            AlternativeExecutionTime.HourMinutes alternativeExecutionTime)
+    {
+        this.zoneID = zoneID;
+        this.zone = zoneID == null ? TimeZone.getDefault() : TimeZone.getTimeZone(zoneID);
+        this.timeUnit = timeUnit;
+        this.authenticator = authenticator;
+        this.alternativeExecutionTime = alternativeExecutionTime;
+    }
+
+    static TriggerConfigSnapshot of(PollingTriglavTrigger plugin)
+    {
+        return new TriggerConfigSnapshot(
+                plugin.getTimeZone(),
+                parseTimeUnit(plugin.getTimeUnit()),
+                parseAuthenticator(plugin.getAuthenticator()),
+                AlternativeExecutionTime.parseHourMinutes(plugin.getAlternativeExecutionTime()));
+    }
+
+    /**
+     * @return the current offset like "+09:00", or null if the zone id is absent.
+     */
+    String timeZone()
+    {
+        if (zoneID == null) {
+            return null;
+        }
+        return ZoneIDConverter.toThreeLetterISO8601(zoneID);
+    }
+
+    /**
+     * @return the time zone in which alternativeExecutionTime is evaluated.
+     */
+    TimeZone zone()
+    {
+        return zone;
+    }
+
+    TimeUnit timeUnit()
+    {
+        return timeUnit;
+    }
+
+    Credential.AuthenticatorEnum authenticator()
+    {
+        return authenticator;
+    }
+
+    /**
+     * @return null if alternativeExecutionTime is not configured or invalid.
+     */
+    AlternativeExecutionTime.HourMinutes alternativeExecutionHourMinutes()
+    {
+        return alternativeExecutionTime;
+    }
+
+    private static TimeUnit parseTimeUnit(String timeUnit)
+    {
+        try {
+            return TimeUnit.valueOf(timeUnit.toUpperCase());
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Credential.AuthenticatorEnum parseAuthenticator(String authenticator)
+    {
+        try {
+            return Credential.AuthenticatorEnum.valueOf(authenticator);
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Jenkins jobs registered to Triglav by this Jenkins: {JenkinsJobFullName, TriglavJobId}.
+ * <p>
+ * Kept up to date by {@link ItemListener} and persisted to {@code $JENKINS_HOME/polling-triglav-triggers.xml},
+ * so that startup and shutdown only look at these jobs instead of walking all items.
+ * All items are walked (in parallel) only when the file is missing or corrupt.
+ */
+public class TriggerRegistry
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final String FILE_NAME = "polling-triglav-triggers.xml";
+
+    private static volatile TriggerRegistry instance;
+
+    public static TriggerRegistry get()
+    {
+        TriggerRegistry registry = instance;
+        if (registry != null) {
+            return registry;
+        }
+        synchronized (TriggerRegistry.class) {
+            if (instance == null) {
+                instance = new TriggerRegistry(new XmlFile(new File(Jenkins.getInstance().getRootDir(), FILE_NAME)));
+            }
+            return instance;
+        }
+    }
+
+    private final XmlFile file;
+    private final ConcurrentHashMap<String, String> jobs = new ConcurrentHashMap<>();
+    /**
+     * Reverse of {@link #jobs}: {TriglavJobId, JenkinsJobFullName}. Both maps are updated under {@link #lock}.
+     */
+    private final ConcurrentHashMap<String, String> jobFullNames = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final boolean isLoaded;
+    private volatile boolean isDirty = false;
+
+    TriggerRegistry(XmlFile file)
+    {
+        this.file = file;
+        this.isLoaded = load();
+    }
+
+    /**
+     * @return false if the registry had to start empty because the file was missing or corrupt.
+     */
+    public boolean isLoaded()
+    {
+        return isLoaded;
+    }
+
+    public boolean containsKey(String jobFullName)
+    {
+        return jobs.containsKey(jobFullName);
+    }
+
+    public String get(String jobFullName)
+    {
+        return jobs.get(jobFullName);
+    }
+
+    public void put(String jobFullName, String triglavJobId)
+    {
+        synchronized (lock) {
+            String previous = jobs.put(jobFullName, triglavJobId);
+            if (triglavJobId.equals(previous)) {
+                return;
+            }
+            if (previous != null) {
+                jobFullNames.remove(previous, jobFullName);
+            }
+            jobFullNames.put(triglavJobId, jobFullName);
+            isDirty = true;
+        }
+    }
+
+    public String remove(String jobFullName)
+    {
+        synchronized (lock) {
+            String jobId = jobs.remove(jobFullName);
+            if (jobId != null) {
+                jobFullNames.remove(jobId, jobFullName);
+                isDirty = true;
+            }
+            return jobId;
+        }
+    }
+
+    public void rename(String oldFullName, String newFullName)
+    {
+        synchronized (lock) {
+            String jobId = jobs.remove(oldFullName);
+            if (jobId == null) {
+                return;
+            }
+            String replaced = jobs.put(newFullName, jobId);
+            if (replaced != null) {
+                jobFullNames.remove(replaced, newFullName);
+            }
+            jobFullNames.put(jobId, newFullName);
+            isDirty = true;
+        }
+    }
+
+    /**
+     * @return a snapshot of all entries.
+     */
+    public Map<String, String> entries()
+    {
+        return new HashMap<>(jobs);
+    }
+
+    /**
+     * @return full name of the Jenkins job registered as the Triglav job, or null if not found.
+     */
+    public String findJenkinsJobFullName(String triglavJobId)
+    {
+        return jobFullNames.get(triglavJobId);
+    }
+
+    /**
+     * Replace all entries with the jobs found by walking all items, inspecting them in parallel.
+     */
+    public void rebuild()
+    {
+        long startNanos = System.nanoTime();
+        List<AbstractProject> projects = Jenkins.getInstance().getAllItems(AbstractProject.class);
+        int numThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), projects.size()));
+        int chunkSize = (projects.size() + numThreads - 1) / numThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        Map<String, String> found = Maps.newHashMap();
+        try {
+            List<Future<Map<String, String>>> futures = Lists.newArrayList();
+            for (final List<AbstractProject> chunk : Lists.partition(projects, Math.max(1, chunkSize))) {
+                futures.add(executor.submit(new Callable<Map<String, String>>()
+                {
+                    @Override
+                    public Map<String, String> call()
+                    {
+                        return findRegisteredJobs(chunk);
+                    }
+                }));
+            }
+            for (Future<Map<String, String>> future : futures) {
+                found.putAll(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while rebuilding the trigger registry", e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(String.format("Failed to rebuild the trigger registry: %s", e.getCause().getMessage()), e.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+        synchronized (lock) {
+            jobs.clear();
+            jobFullNames.clear();
+            putAll(found);
+            isDirty = true;
+        }
+        logger.info(String.format("Rebuilt the trigger registry from %d items: %d jobs in %d ms",
+                projects.size(), found.size(), TriglavMetrics.elapsedMillis(startNanos)));
+    }
+
+    private static Map<String, String> findRegisteredJobs(List<AbstractProject> projects)
+    {
+        Map<String, String> found = Maps.newHashMap();
+        for (AbstractProject project : projects) {
+            PollingTriglavTrigger t = (PollingTriglavTrigger) project.getTrigger(PollingTriglavTrigger.class);
+            if (t == null) {
+                continue;
+            }
+            String jobId = t.parameters().jobId();
+            if (isBlank(jobId)) {
+                // Not be registered to Triglav Server.
+                continue;
+            }
+            logger.fine(String.format("Find Job: %s, Triglav Job ID: %s.", project.getFullName(), jobId));
+            found.put(project.getFullName(), jobId);
+        }
+        return found;
+    }
+
+    public synchronized void save()
+    {
+        if (!isDirty) {
+            return;
+        }
+        isDirty = false;
+        try {
+            file.write(new HashMap<>(jobs));
+        }
+        catch (IOException e) {
+            isDirty = true;
+            logger.log(Level.WARNING, String.format("Failed to save %s: %s", file, e.getMessage()), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean load()
+    {
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            Object loaded = file.read();
+            if (!(loaded instanceof Map)) {
+                logger.warning(String.format("Ignore %s: unexpected content %s", file, loaded == null ? null : loaded.getClass().getName()));
+                return false;
+            }
+            putAll((Map<String, String>) loaded);
+            return true;
+        }
+        catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, String.format("Failed to load %s: %s", file, e.getMessage()), e);
+            jobs.clear();
+            jobFullNames.clear();
+            return false;
+        }
+    }
+
+    private void putAll(Map<String, String> entries)
+    {
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            jobs.put(entry.getKey(), entry.getValue());
+            jobFullNames.put(entry.getValue(), entry.getKey());
+        }
+    }
+
+    @Extension
+    public static final class SaveWork
+            extends PeriodicWork
+    {
+        @Override
+        public long getRecurrencePeriod()
+        {
+            return java.util.concurrent.TimeUnit.SECONDS.toMillis(PollingTriglavTrigger.getSaveIntervalSeconds());
+        }
+
+        @Override
+        protected void doRun()
+        {
+            TriggerRegistry.get().save();
+        }
+    }
+}
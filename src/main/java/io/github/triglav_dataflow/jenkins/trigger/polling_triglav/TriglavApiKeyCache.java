@@ -0,0 +1,165 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import io.github.triglav_dataflow.client.ApiException;
+import io.github.triglav_dataflow.client.Credential;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Process-wide cache of Triglav api keys keyed by (api url, username, authenticator).
+ * <p>
+ * Cached api keys are not validated in advance. A caller that gets 401 from Triglav
+ * calls {@link #refresh} with the rejected api key, and concurrent refreshes for the
+ * same credential share one token request.
+ */
+public class TriglavApiKeyCache
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private TriglavApiKeyCache()
+    {
+    }
+
+    interface TokenFactory
+    {
+        String createToken()
+                throws ApiException;
+    }
+
+    /**
+     * @param seedApiKey api key persisted in the job configuration, used when nothing is cached yet.
+     * @return a cached api key, or a newly created one if neither the cache nor the seed has a value.
+     */
+    public static String get(Key key, String seedApiKey, TokenFactory factory)
+            throws ApiException
+    {
+        Entry entry = entry(key);
+        String apiKey = entry.apiKey();
+        if (!isBlank(apiKey)) {
+            TriglavMetrics.increment("api_key_cache_hits_total");
+            return apiKey;
+        }
+        return entry.initialize(seedApiKey, factory);
+    }
+
+    /**
+     * @param staleApiKey the api key Triglav rejected.
+     * @return a new api key, or the api key another thread has already refreshed.
+     */
+    public static String refresh(Key key, String staleApiKey, TokenFactory factory)
+            throws ApiException
+    {
+        return entry(key).refresh(staleApiKey, factory);
+    }
+
+    public static void invalidateAll()
+    {
+        entries.clear();
+    }
+
+    private static Entry entry(Key key)
+    {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        Entry newEntry = new Entry(key);
+        entry = entries.putIfAbsent(key, newEntry);
+        return entry == null ? newEntry : entry;
+    }
+
+    public static final class Key
+    {
+        private final String apiUrl;
+        private final String username;
+        private final Credential.AuthenticatorEnum authenticator;
+
+        public Key(String apiUrl, String username, Credential.AuthenticatorEnum authenticator)
+        {
+            this.apiUrl = apiUrl;
+            this.username = username;
+            this.authenticator = authenticator;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return String.valueOf(apiUrl).equals(String.valueOf(that.apiUrl))
+                    && String.valueOf(username).equals(String.valueOf(that.username))
+                    && authenticator == that.authenticator;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = String.valueOf(apiUrl).hashCode();
+            result = 31 * result + String.valueOf(username).hashCode();
+            result = 31 * result + (authenticator == null ? 0 : authenticator.hashCode());
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%s(%s)", username, apiUrl, authenticator);
+        }
+    }
+
+    private static final class Entry
+    {
+        private final Key key;
+        private volatile String apiKey;
+
+        private Entry(Key key)
+        {
+            this.key = key;
+        }
+
+        private String apiKey()
+        {
+            return apiKey;
+        }
+
+        private synchronized String initialize(String seedApiKey, TokenFactory factory)
+                throws ApiException
+        {
+            if (!isBlank(apiKey)) {
+                return apiKey;
+            }
+            if (!isBlank(seedApiKey)) {
+                apiKey = seedApiKey;
+                return apiKey;
+            }
+            logger.fine(String.format("Create new api key for %s.", key));
+            TriglavMetrics.increment("api_key_creations_total", "reason", "absent");
+            apiKey = factory.createToken();
+            return apiKey;
+        }
+
+        private synchronized String refresh(String staleApiKey, TokenFactory factory)
+                throws ApiException
+        {
+            if (!isBlank(apiKey) && !apiKey.equals(staleApiKey)) {
+                // Another thread has already refreshed while this thread was waiting.
+                TriglavMetrics.increment("api_key_cache_hits_total");
+                return apiKey;
+            }
+            logger.fine(String.format("Refresh api key for %s.", key));
+            TriglavMetrics.increment("api_key_creations_total", "reason", "rejected");
+            apiKey = factory.createToken();
+            return apiKey;
+        }
+    }
+}
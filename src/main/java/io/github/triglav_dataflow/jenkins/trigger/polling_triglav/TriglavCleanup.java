@@ -0,0 +1,230 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.XmlFile;
+import io.github.triglav_dataflow.client.ApiException;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Unregisters Triglav jobs which are no longer used by this Jenkins: {TriglavJobId, JenkinsJobFullName or Triglav job url}.
+ * The name is only for logging. Jobs are keyed by Triglav job id, so a pending unregistration is never replaced by
+ * another one for a job registered again under the same name.
+ * <p>
+ * All unregistrations share one admin client, run on up to Registration Threads threads and stop at
+ * Cleanup Timeout Seconds, or at the deadline shared with the rest of the shutdown. The ones not finished in time or failed are written to
+ * {@code $JENKINS_HOME/polling-triglav-unregistrations.xml} and retried after the next start.
+ */
+public class TriglavCleanup
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final String FILE_NAME = "polling-triglav-unregistrations.xml";
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private TriglavCleanup()
+    {
+    }
+
+    /**
+     * Unregister the jobs within Cleanup Timeout Seconds, leaving the rest to the next start. Never throws.
+     *
+     * @param jobs {TriglavJobId, JenkinsJobFullName or Triglav job url}
+     */
+    public static void unregister(Map<String, String> jobs)
+    {
+        unregister(jobs, deadlineMillis());
+    }
+
+    /**
+     * Unregister the jobs until the deadline, leaving the rest to the next start. Never throws.
+     *
+     * @param jobs {TriglavJobId, JenkinsJobFullName or Triglav job url}
+     */
+    public static synchronized void unregister(Map<String, String> jobs, long deadlineMillis)
+    {
+        Map<String, String> pending = load();
+        pending.putAll(jobs);
+        if (pending.isEmpty()) {
+            return;
+        }
+        save(unregisterWithinTimeout(pending, deadlineMillis));
+    }
+
+    /**
+     * Retry the unregistrations left by the last shutdown in background.
+     */
+    static void retryLater()
+    {
+        if (!file().exists()) {
+            return;
+        }
+        try {
+            jenkins.util.Timer.get().submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    retry();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            logger.fine(String.format("Retrying unregistrations is not scheduled: %s", e.getMessage()));
+        }
+    }
+
+    private static synchronized void retry()
+    {
+        Map<String, String> pending = load();
+        for (Map.Entry<String, String> entry : Maps.newHashMap(pending).entrySet()) {
+            if (TriggerRegistry.get().findJenkinsJobFullName(entry.getKey()) != null) {
+                // Used by a job again.
+                pending.remove(entry.getKey());
+            }
+        }
+        logger.info(String.format("Retry unregistering %d Triglav jobs left by the last shutdown.", pending.size()));
+        save(unregisterWithinTimeout(pending, deadlineMillis()));
+    }
+
+    private static long deadlineMillis()
+    {
+        return System.currentTimeMillis() + java.util.concurrent.TimeUnit.SECONDS.toMillis(PollingTriglavTrigger.getCleanupTimeoutSeconds());
+    }
+
+    /**
+     * @return the jobs not unregistered.
+     */
+    private static Map<String, String> unregisterWithinTimeout(Map<String, String> jobs, long deadlineMillis)
+    {
+        if (jobs.isEmpty()) {
+            return jobs;
+        }
+        if (System.currentTimeMillis() >= deadlineMillis) {
+            logger.warning(String.format("No time is left to unregister %d Triglav jobs. Unregister them after the next start.", jobs.size()));
+            TriglavMetrics.add("triglav_cleanup_unregistrations_total", jobs.size(), "result", "deferred");
+            return jobs;
+        }
+        final TriglavClient client;
+        try {
+            client = TriglavClient.fromTriggerAdminParameter();
+        }
+        catch (ApiException | RuntimeException e) {
+            logger.log(Level.WARNING, String.format("Failed to authenticate to Triglav. Unregister %d jobs later: %s", jobs.size(), e.getMessage()), e);
+            TriglavMetrics.add("triglav_cleanup_unregistrations_total", jobs.size(), "result", "deferred");
+            return jobs;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(PollingTriglavTrigger.getRegistrationThreads(), jobs.size())),
+                new ThreadFactoryBuilder().setNameFormat("polling-triglav-cleanup-%d").setDaemon(true).build());
+        Map<String, Future<Void>> futures = Maps.newLinkedHashMap();
+        for (Map.Entry<String, String> entry : jobs.entrySet()) {
+            final String jobId = entry.getKey();
+            futures.put(jobId, executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws ApiException
+                {
+                    try {
+                        client.unregisterJob(jobId);
+                    }
+                    catch (ApiException e) {
+                        if (e.getCode() != HTTP_NOT_FOUND) {
+                            throw e;
+                        }
+                        // Already unregistered.
+                    }
+                    OffsetJournal.get().remove(jobId);
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        Map<String, String> unfinished = Maps.newHashMap();
+        for (Map.Entry<String, Future<Void>> entry : futures.entrySet()) {
+            String jobId = entry.getKey();
+            String jobFullName = jobs.get(jobId);
+            try {
+                entry.getValue().get(Math.max(0L, deadlineMillis - System.currentTimeMillis()), java.util.concurrent.TimeUnit.MILLISECONDS);
+                logger.fine(String.format("Unregistered Job: %s, Triglav Job ID: %s", jobFullName, jobId));
+                TriglavMetrics.increment("triglav_cleanup_unregistrations_total", "result", "success");
+                continue;
+            }
+            catch (TimeoutException e) {
+                logger.fine(String.format("Unregistering Job: %s, Triglav Job ID: %s is not finished in time.", jobFullName, jobId));
+            }
+            catch (ExecutionException e) {
+                logger.log(Level.WARNING, String.format("Failed to unregister Job: %s, Triglav Job ID: %s, Error: %s",
+                        jobFullName, jobId, e.getCause().getMessage()), e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TriglavMetrics.increment("triglav_cleanup_unregistrations_total", "result", "deferred");
+            unfinished.put(jobId, jobFullName);
+        }
+        executor.shutdownNow();
+        if (!unfinished.isEmpty()) {
+            logger.warning(String.format("Unregister %d Triglav jobs after the next start.", unfinished.size()));
+        }
+        return unfinished;
+    }
+
+    private static File file()
+    {
+        return new File(Jenkins.getInstance().getRootDir(), FILE_NAME);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> load()
+    {
+        XmlFile file = new XmlFile(file());
+        Map<String, String> jobs = Maps.newHashMap();
+        if (!file.exists()) {
+            return jobs;
+        }
+        try {
+            Object loaded = file.read();
+            if (loaded instanceof Map) {
+                jobs.putAll((Map<String, String>) loaded);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, String.format("Failed to load %s: %s", file, e.getMessage()), e);
+        }
+        return jobs;
+    }
+
+    private static void save(Map<String, String> jobs)
+    {
+        if (jobs.isEmpty()) {
+            if (file().exists() && !file().delete()) {
+                logger.warning(String.format("Failed to delete %s", file()));
+            }
+            return;
+        }
+        XmlFile file = new XmlFile(file());
+        try {
+            file.write(new HashMap<>(jobs));
+        }
+        catch (IOException e) {
+            logger.log(Level.WARNING, String.format("Failed to save %s: %s", file, e.getMessage()), e);
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
 
-import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 import com.squareup.okhttp.OkHttpClient;
+import io.github.triglav_dataflow.client.ApiCallback;
 import io.github.triglav_dataflow.client.ApiClient;
 import io.github.triglav_dataflow.client.ApiException;
-import io.github.triglav_dataflow.client.Configuration;
 import io.github.triglav_dataflow.client.Credential;
 import io.github.triglav_dataflow.client.JobMessageEachResponse;
 import io.github.triglav_dataflow.client.JobRequest;
@@ -16,11 +16,16 @@ import io.github.triglav_dataflow.client.api.JobMessagesApi;
 import io.github.triglav_dataflow.client.api.JobsApi;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
-public class TriglavClient // TODO: HTTP Request requires Retriable?
+public class TriglavClient
 {
     private static Logger logger = PollingTriglavTrigger.getLogger();
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final String FETCH_JOB_MESSAGES_ASYNC = "fetch_job_messages_async";
 
     interface OkHttpClientConfigurable
     {
@@ -48,7 +53,7 @@ public class TriglavClient // TODO: HTTP Request requires Retriable?
     {
         TriglavClient client = new TriglavClient(parameters.triglavApiUrl(), getDefaultConfigurable());
 
-        client.authenticate(
+        client.useCredential(
                 parameters.username(),
                 parameters.password(),
                 parameters.authenticator(),
@@ -62,7 +67,7 @@ public class TriglavClient // TODO: HTTP Request requires Retriable?
             throws ApiException
     {
         TriglavClient client = new TriglavClient(PollingTriglavTrigger.getTriglavApiUrl(), getDefaultConfigurable());
-        client.authenticate(
+        client.useCredential(
                 PollingTriglavTrigger.getAdminUsername(),
                 PollingTriglavTrigger.getAdminPassword(),
                 Credential.AuthenticatorEnum.LOCAL, // TODO: from UI?
@@ -72,15 +77,23 @@ public class TriglavClient // TODO: HTTP Request requires Retriable?
         return client;
     }
 
-    private final ApiClient client;
-    private String apiKey;
+    private interface ApiCall<T>
+    {
+        T call()
+                throws ApiException;
+    }
+
+    private final String apiUrl;
+    private final OkHttpClientConfigurable configurable;
+    private volatile ApiClient client;
+    private volatile String apiKey;
+    private Credential credential;
 
     public TriglavClient(String apiUrl, OkHttpClientConfigurable configurable)
     {
-        ApiClient c = Configuration.getDefaultApiClient();
-        c.setBasePath(apiUrl);
-        configurable.configure(c.getHttpClient());
-        this.client = c;
+        this.apiUrl = apiUrl;
+        this.configurable = configurable;
+        this.client = TriglavHttpClientRegistry.getApiClient(apiUrl, null, configurable);
     }
 
     public String getApiKey()
@@ -90,17 +103,38 @@ public class TriglavClient // TODO: HTTP Request requires Retriable?
 
     public void setApiKey(String apiKey)
     {
+        // ApiClients are shared and never mutated, so switch to the one with this api key.
+        this.client = TriglavHttpClientRegistry.getApiClient(apiUrl, apiKey, configurable);
         this.apiKey = apiKey;
-        synchronized (client) { // io.github.triglav_dataflow.client.ApiClient#apiKey is not defined with `synchronized`.
-            client.setApiKey(apiKey);
-        }
     }
 
     /**
+     * Use an api key shared by all clients with the same credential.
+     * The api key is not validated here; it is refreshed when Triglav rejects it.
+     */
+    public void useCredential(
+            String username,
+            String password,
+            Credential.AuthenticatorEnum authenticator,
+            String apiKey)
+            throws ApiException
+    {
+        Credential c = new Credential();
+        c.setUsername(username);
+        c.setPassword(password);
+        c.setAuthenticator(authenticator);
+        this.credential = c;
+
+        setApiKey(TriglavApiKeyCache.get(apiKeyCacheKey(), apiKey, tokenFactory()));
+    }
+
+    /**
+     * Validate the api key eagerly, creating a new one if it is invalid.
+     * Only for explicit authentication tests; polling uses {@link #useCredential}.
+     *
      * @param username
      * @param password
      * @param apiKey
-     * @return String apiKey
      */
     public void authenticate(
             String username,
@@ -138,16 +172,167 @@ public class TriglavClient // TODO: HTTP Request requires Retriable?
         }
     }
 
+    private TriglavApiKeyCache.Key apiKeyCacheKey()
+    {
+        return new TriglavApiKeyCache.Key(apiUrl, credential.getUsername(), credential.getAuthenticator());
+    }
+
+    private TriglavApiKeyCache.TokenFactory tokenFactory()
+    {
+        return new TriglavApiKeyCache.TokenFactory()
+        {
+            @Override
+            public String createToken()
+                    throws ApiException
+            {
+                return new AuthApi(client).createToken(credential).getAccessToken();
+            }
+        };
+    }
+
+    /**
+     * Execute the call, retrying transient failures according to {@link RetryPolicy}.
+     * Failing fast because of the circuit breaker is never retried.
+     */
+    private <T> T execute(String endpoint, ApiCall<T> call, RetryPolicy.Idempotency idempotency)
+            throws ApiException
+    {
+        return execute(endpoint, call, RetryPolicy.fromGlobalConfiguration(idempotency));
+    }
+
+    /**
+     * Execute the call, waiting on this thread between attempts as told by the retry policy.
+     */
+    private <T> T execute(String endpoint, ApiCall<T> call, RetryPolicy retryPolicy)
+            throws ApiException
+    {
+        while (true) {
+            try {
+                return executeOnce(endpoint, call);
+            }
+            catch (CircuitBreakerOpenException e) {
+                throw e;
+            }
+            catch (ApiException e) {
+                long delayMillis = retryPolicy.nextDelayMillis(e);
+                if (delayMillis < 0L) {
+                    throw e;
+                }
+                logger.fine(String.format("Retry in %d ms after attempt %d failed: Code: %d, Message: %s",
+                        delayMillis, retryPolicy.getAttempts(), e.getCode(), e.getMessage()));
+                sleep(delayMillis);
+            }
+        }
+    }
+
+    private static void sleep(long millis)
+            throws ApiException
+    {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
+    /**
+     * Execute the call through the circuit breaker of the api url.
+     * Fails fast without any request while the breaker is open.
+     */
+    private <T> T executeOnce(String endpoint, ApiCall<T> call)
+            throws ApiException
+    {
+        CircuitBreaker breaker = CircuitBreaker.forEndpoint(apiUrl);
+        if (!breaker.allowRequest()) {
+            recordRequest(endpoint, "circuit_open", null);
+            throw circuitBreakerOpenException();
+        }
+        long startNanos = System.nanoTime();
+        try {
+            T result = executeWithApiKeyRefresh(call);
+            breaker.recordSuccess();
+            recordRequest(endpoint, "2xx", startNanos);
+            return result;
+        }
+        catch (ApiException e) {
+            breaker.record(e.getCode());
+            recordRequest(endpoint, String.valueOf(e.getCode()), startNanos);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            breaker.recordFailure();
+            recordRequest(endpoint, "error", startNanos);
+            throw e;
+        }
+    }
+
+    /**
+     * @param status "2xx", a status code of failure ("0" for connection failures), "circuit_open" or "error".
+     * @param startNanos null if no request is sent.
+     */
+    private static void recordRequest(String endpoint, String status, Long startNanos)
+    {
+        TriglavMetrics.increment("triglav_requests_total", "endpoint", endpoint, "status", status);
+        if (startNanos != null) {
+            TriglavMetrics.observeMillis("triglav_request_duration_ms", TriglavMetrics.elapsedMillis(startNanos), "endpoint", endpoint);
+        }
+    }
+
+    static class CircuitBreakerOpenException
+            extends ApiException
+    {
+        CircuitBreakerOpenException(String message)
+        {
+            super(message);
+        }
+    }
+
+    private ApiException circuitBreakerOpenException()
+    {
+        return new CircuitBreakerOpenException(String.format("Circuit breaker for %s is open: %s", apiUrl, CircuitBreaker.forEndpoint(apiUrl)));
+    }
+
+    /**
+     * Execute the call, refreshing the shared api key and retrying once if Triglav answers 401.
+     */
+    private <T> T executeWithApiKeyRefresh(ApiCall<T> call)
+            throws ApiException
+    {
+        try {
+            return call.call();
+        }
+        catch (ApiException e) {
+            if (e.getCode() != HTTP_UNAUTHORIZED || credential == null) {
+                throw e;
+            }
+            logger.fine(String.format("Api Key is rejected by Triglav. Message: %s", e.getMessage()));
+            setApiKey(TriglavApiKeyCache.refresh(apiKeyCacheKey(), apiKey, tokenFactory()));
+            return call.call();
+        }
+    }
+
     public void unregisterJob(String jobId)
             throws ApiException
     {
         if (jobId == null || jobId.isEmpty()) {
             throw new IllegalArgumentException("Job ID must has value.");
         }
-        new JobsApi(client).deleteJob(jobId);
+        final String id = jobId;
+        execute("delete_job", new ApiCall<Void>()
+        {
+            @Override
+            public Void call()
+                    throws ApiException
+            {
+                new JobsApi(client).deleteJob(id);
+                return null;
+            }
+        }, RetryPolicy.Idempotency.IDEMPOTENT);
     }
 
-    public ResourceRequest createResourceRequest(
+    public static ResourceRequest createResourceRequest(
             Long resourceId,
             String resourceUri,
             String timeZone,
@@ -176,7 +361,7 @@ public class TriglavClient // TODO: HTTP Request requires Retriable?
             String logicalOp)
             throws ApiException
     {
-        JobRequest jr = new JobRequest();
+        final JobRequest jr = new JobRequest();
         if (jobId != null) {
             jr.setId(jobId);
         }
@@ -185,33 +370,259 @@ public class TriglavClient // TODO: HTTP Request requires Retriable?
         jr.setInputResources(resources);
         jr.setLogicalOp(logicalOp);
 
-        return new JobsApi(client).createOrUpdateJob(jr);
+        return execute("create_or_update_job", new ApiCall<JobResponse>()
+        {
+            @Override
+            public JobResponse call()
+                    throws ApiException
+            {
+                return new JobsApi(client).createOrUpdateJob(jr);
+            }
+        }, jobId == null ? RetryPolicy.Idempotency.NOT_IDEMPOTENT : RetryPolicy.Idempotency.IDEMPOTENT);
+    }
+
+    /**
+     * Fetch up to {@code limit} jobs whose id is {@code offset} or more, in ascending id order, in one request.
+     */
+    public List<JobResponse> listJobs(final long offset, final long limit)
+            throws ApiException
+    {
+        if (limit < 1L) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        List<JobResponse> jobs = execute("list_jobs", new ApiCall<List<JobResponse>>()
+        {
+            @Override
+            public List<JobResponse> call()
+                    throws ApiException
+            {
+                return new JobsApi(client).listJobs(offset, limit);
+            }
+        }, RetryPolicy.Idempotency.IDEMPOTENT);
+        if (jobs == null) {
+            return Lists.newArrayList();
+        }
+        return jobs;
+    }
+
+    /**
+     * Fetch all jobs registered to Triglav, {@code pageSize} jobs per request.
+     *
+     * @throws IllegalStateException if Triglav returns a page which is not in ascending id order,
+     *         i.e. does not page as requested, so that the result could miss jobs.
+     */
+    public List<JobResponse> listAllJobs(long pageSize)
+            throws ApiException
+    {
+        List<JobResponse> jobs = Lists.newArrayList();
+        long offset = 0L;
+        while (true) {
+            List<JobResponse> page = listJobs(offset, pageSize);
+            for (JobResponse jr : page) {
+                if (jr.getId() == null || jr.getId() < offset) {
+                    throw new IllegalStateException(String.format("Triglav returned Job ID: %s for offset %d. Jobs are not paged by id.",
+                            jr.getId(), offset));
+                }
+                offset = jr.getId() + 1L;
+                jobs.add(jr);
+            }
+            if (page.size() < pageSize) {
+                return jobs;
+            }
+        }
+    }
+
+    /**
+     * @return the job, or null if Triglav answers 404.
+     */
+    public JobResponse getJob(Long jobId)
+            throws ApiException
+    {
+        if (jobId == null) {
+            throw new IllegalArgumentException("Job ID must has value.");
+        }
+        final String id = jobId.toString();
+        try {
+            return execute("get_job", new ApiCall<JobResponse>()
+            {
+                @Override
+                public JobResponse call()
+                        throws ApiException
+                {
+                    return new JobsApi(client).getJob(id);
+                }
+            }, RetryPolicy.Idempotency.IDEMPOTENT);
+        }
+        catch (ApiException e) {
+            if (e.getCode() == HTTP_NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
     }
 
     public long getLastJobMessageId()
             throws ApiException
     {
-        return new JobMessagesApi(client).getLastJobMessageId().getId();
+        return execute("get_last_job_message_id", new ApiCall<Long>()
+        {
+            @Override
+            public Long call()
+                    throws ApiException
+            {
+                return new JobMessagesApi(client).getLastJobMessageId().getId();
+            }
+        }, RetryPolicy.Idempotency.IDEMPOTENT);
     }
 
-    public Optional<JobMessageEachResponse> consumeIfPossible(Long jobId, long jobMessageOffset)
+    /**
+     * Fetch up to {@code limit} job messages starting from {@code jobMessageOffset} in one request.
+     *
+     * A failed request is not retried, so that a slow Triglav never holds a polling thread for retry delays.
+     * It is retried by the next cron tick; {@link #consumeAsync} retries without holding any thread.
+     *
+     * @return messages in ascending id order, or an empty list if nothing was found.
+     * @throws ApiException if the request failed, including when the circuit breaker is open.
+     */
+    public List<JobMessageEachResponse> consumeIfPossible(final Long jobId, final long jobMessageOffset, final long limit)
+            throws ApiException
     {
         if (jobId == null) {
             throw new IllegalArgumentException("Job ID must has value.");
         }
+        if (limit < 1L) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
 
-        logger.fine(String.format("Consume messages if possible: Job ID: %s, Offset: %s", jobId, jobMessageOffset));
+        logger.fine(String.format("Consume messages if possible: Job ID: %s, Offset: %s, Limit: %s", jobId, jobMessageOffset, limit));
 
-        try {
-            List<JobMessageEachResponse> responses = new JobMessagesApi(client).fetchJobMessages(jobMessageOffset, jobId, 1L);
-            if (responses.isEmpty()) {
-                return Optional.absent();
+        List<JobMessageEachResponse> responses = execute("fetch_job_messages", new ApiCall<List<JobMessageEachResponse>>()
+        {
+            @Override
+            public List<JobMessageEachResponse> call()
+                    throws ApiException
+            {
+                return new JobMessagesApi(client).fetchJobMessages(jobMessageOffset, jobId, limit);
             }
-            return Optional.of(responses.get(0));
+        }, RetryPolicy.noRetry());
+        if (responses == null) {
+            return Lists.newArrayList();
+        }
+        return responses;
+    }
+
+    interface ConsumeCallback
+    {
+        void onMessages(List<JobMessageEachResponse> messages);
+
+        void onFailure(ApiException e);
+    }
+
+    /**
+     * Non-blocking variant of {@link #consumeIfPossible}. The callback is invoked on a thread of the http client.
+     */
+    public void consumeAsync(Long jobId, long jobMessageOffset, long limit, ConsumeCallback callback)
+    {
+        if (jobId == null) {
+            throw new IllegalArgumentException("Job ID must has value.");
+        }
+        if (limit < 1L) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+
+        logger.fine(String.format("Consume messages asynchronously: Job ID: %s, Offset: %s, Limit: %s", jobId, jobMessageOffset, limit));
+        RetryPolicy retryPolicy = RetryPolicy.fromGlobalConfiguration(RetryPolicy.Idempotency.IDEMPOTENT);
+        fetchJobMessagesAsync(jobId, jobMessageOffset, limit, false, retryPolicy, callback);
+    }
+
+    private void fetchJobMessagesAsync(
+            final Long jobId,
+            final long jobMessageOffset,
+            final long limit,
+            final boolean isApiKeyRefreshed,
+            final RetryPolicy retryPolicy,
+            final ConsumeCallback callback)
+    {
+        final CircuitBreaker breaker = CircuitBreaker.forEndpoint(apiUrl);
+        if (!breaker.allowRequest()) {
+            recordRequest(FETCH_JOB_MESSAGES_ASYNC, "circuit_open", null);
+            callback.onFailure(circuitBreakerOpenException());
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        try {
+            new JobMessagesApi(client).fetchJobMessagesAsync(jobMessageOffset, jobId, limit, new ApiCallback<List<JobMessageEachResponse>>()
+            {
+                @Override
+                public void onFailure(ApiException e, int statusCode, Map<String, List<String>> responseHeaders)
+                {
+                    breaker.record(statusCode);
+                    recordRequest(FETCH_JOB_MESSAGES_ASYNC, String.valueOf(statusCode), startNanos);
+                    if (statusCode != HTTP_UNAUTHORIZED || credential == null || isApiKeyRefreshed) {
+                        retryLaterOrFail(e);
+                        return;
+                    }
+                    logger.fine(String.format("Api Key is rejected by Triglav. Message: %s", e.getMessage()));
+                    try {
+                        setApiKey(TriglavApiKeyCache.refresh(apiKeyCacheKey(), apiKey, tokenFactory()));
+                    }
+                    catch (ApiException refreshError) {
+                        callback.onFailure(refreshError);
+                        return;
+                    }
+                    fetchJobMessagesAsync(jobId, jobMessageOffset, limit, true, retryPolicy, callback);
+                }
+
+                private void retryLaterOrFail(ApiException e)
+                {
+                    long delayMillis = retryPolicy.nextDelayMillis(e);
+                    if (delayMillis < 0L) {
+                        callback.onFailure(e);
+                        return;
+                    }
+                    logger.fine(String.format("Retry in %d ms after attempt %d failed: Code: %d, Message: %s",
+                            delayMillis, retryPolicy.getAttempts(), e.getCode(), e.getMessage()));
+                    try {
+                        jenkins.util.Timer.get().schedule(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                fetchJobMessagesAsync(jobId, jobMessageOffset, limit, isApiKeyRefreshed, retryPolicy, callback);
+                            }
+                        }, delayMillis, java.util.concurrent.TimeUnit.MILLISECONDS);
+                    }
+                    catch (RejectedExecutionException rejected) {
+                        callback.onFailure(e);
+                    }
+                }
+
+                @Override
+                public void onSuccess(List<JobMessageEachResponse> result, int statusCode, Map<String, List<String>> responseHeaders)
+                {
+                    breaker.recordSuccess();
+                    recordRequest(FETCH_JOB_MESSAGES_ASYNC, "2xx", startNanos);
+                    if (result == null) {
+                        callback.onMessages(Lists.<JobMessageEachResponse>newArrayList());
+                        return;
+                    }
+                    callback.onMessages(result);
+                }
+
+                @Override
+                public void onUploadProgress(long bytesWritten, long contentLength, boolean done)
+                {
+                }
+
+                @Override
+                public void onDownloadProgress(long bytesRead, long contentLength, boolean done)
+                {
+                }
+            });
         }
         catch (ApiException e) {
-            logger.warning(e.getMessage());
-            return Optional.absent();
+            breaker.record(e.getCode());
+            callback.onFailure(e);
         }
     }
 }
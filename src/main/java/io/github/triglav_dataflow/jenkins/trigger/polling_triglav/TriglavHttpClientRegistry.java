@@ -0,0 +1,146 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import io.github.triglav_dataflow.client.ApiClient;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Holds one connection-pooled {@link OkHttpClient} per Triglav api url,
+ * and one {@link ApiClient} on top of it per (api url, api key).
+ * <p>
+ * The registered clients are configured once and never mutated afterwards,
+ * so any number of {@link TriglavClient}s can share them without locking.
+ * A {@link TriglavClient} switches to another {@link ApiClient} when its api key changes.
+ */
+public class TriglavHttpClientRegistry
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    // Api keys are shared by credential (see TriglavApiKeyCache), so this holds a few clients per credential.
+    private static final long MAX_API_CLIENTS = 1000L;
+    private static final ConcurrentMap<String, OkHttpClient> httpClients = new ConcurrentHashMap<>();
+    private static final Cache<ApiClientKey, ApiClient> apiClients = CacheBuilder.newBuilder()
+            .maximumSize(MAX_API_CLIENTS)
+            .expireAfterAccess(1L, java.util.concurrent.TimeUnit.HOURS)
+            .build();
+
+    private TriglavHttpClientRegistry()
+    {
+    }
+
+    public static OkHttpClient get(String apiUrl, TriglavClient.OkHttpClientConfigurable configurable)
+    {
+        OkHttpClient httpClient = httpClients.get(apiUrl);
+        if (httpClient != null) {
+            return httpClient;
+        }
+
+        OkHttpClient newHttpClient = create(configurable);
+        httpClient = httpClients.putIfAbsent(apiUrl, newHttpClient);
+        if (httpClient != null) {
+            return httpClient;
+        }
+        logger.fine(String.format("Create http client for %s.", apiUrl));
+        return newHttpClient;
+    }
+
+    /**
+     * @param apiKey null or empty before authentication.
+     * @return an {@link ApiClient} using the shared http client of the api url. Never mutate it.
+     */
+    public static ApiClient getApiClient(
+            final String apiUrl,
+            final String apiKey,
+            final TriglavClient.OkHttpClientConfigurable configurable)
+    {
+        try {
+            return apiClients.get(new ApiClientKey(apiUrl, apiKey), new Callable<ApiClient>()
+            {
+                @Override
+                public ApiClient call()
+                {
+                    // Do not use Configuration.getDefaultApiClient(): it is shared by all jobs,
+                    // so api keys of concurrent jobs would overwrite each other.
+                    ApiClient c = new ApiClient();
+                    c.setBasePath(apiUrl);
+                    c.setHttpClient(get(apiUrl, configurable));
+                    if (apiKey != null && !apiKey.isEmpty()) {
+                        c.setApiKey(apiKey);
+                    }
+                    return c;
+                }
+            });
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Drop all clients, e.g. when connection pool settings are changed.
+     * Idle connections of the dropped clients are closed.
+     */
+    public static void invalidateAll()
+    {
+        apiClients.invalidateAll();
+        for (String apiUrl : httpClients.keySet()) {
+            OkHttpClient httpClient = httpClients.remove(apiUrl);
+            if (httpClient != null && httpClient.getConnectionPool() != null) {
+                httpClient.getConnectionPool().evictAll();
+            }
+        }
+    }
+
+    private static OkHttpClient create(TriglavClient.OkHttpClientConfigurable configurable)
+    {
+        OkHttpClient httpClient = new OkHttpClient();
+        configurable.configure(httpClient);
+        httpClient.setConnectionPool(new ConnectionPool(
+                PollingTriglavTrigger.getMaxIdleConnections(),
+                java.util.concurrent.TimeUnit.SECONDS.toMillis(PollingTriglavTrigger.getKeepAliveSeconds())));
+        // Asynchronous polling can have as many requests in flight as polling threads; the rest wait in the dispatcher queue.
+        httpClient.getDispatcher().setMaxRequests(PollingTriglavTrigger.getPollingThreads());
+        httpClient.getDispatcher().setMaxRequestsPerHost(PollingTriglavTrigger.getPollingThreads());
+        return httpClient;
+    }
+
+    private static final class ApiClientKey
+    {
+        private final String apiUrl;
+        private final String apiKey;
+
+        private ApiClientKey(String apiUrl, String apiKey)
+        {
+            this.apiUrl = apiUrl;
+            this.apiKey = apiKey == null ? "" : apiKey;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ApiClientKey)) {
+                return false;
+            }
+            ApiClientKey that = (ApiClientKey) o;
+            return String.valueOf(apiUrl).equals(String.valueOf(that.apiUrl))
+                    && String.valueOf(apiKey).equals(String.valueOf(that.apiKey));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * String.valueOf(apiUrl).hashCode() + String.valueOf(apiKey).hashCode();
+        }
+    }
+}
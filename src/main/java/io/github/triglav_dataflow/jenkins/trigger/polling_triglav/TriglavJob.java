@@ -1,11 +1,13 @@
 package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
-import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import io.github.triglav_dataflow.client.ApiException;
 import io.github.triglav_dataflow.client.JobMessageEachResponse;
 import io.github.triglav_dataflow.client.JobResponse;
@@ -15,7 +17,6 @@ import io.github.triglav_dataflow.client.ResourceResponse;
 import javax.annotation.Nullable;
 
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
@@ -26,8 +27,6 @@ public class TriglavJob
     private final PollingTriglavTrigger.Parameters parameters;
     private final TriglavClient client;
 
-    private Map<String, String> currentMessage;
-
     public TriglavJob(PollingTriglavTrigger.Parameters parameters, TriglavClient client)
     {
         this.parameters = parameters;
@@ -44,11 +43,6 @@ public class TriglavJob
         return parameters.jobMessageOffset();
     }
 
-    public Map<String, String> currentMessage()
-    {
-        return currentMessage;
-    }
-
     public void setId(String id)
     {
         if (isBlank(id)) {
@@ -75,28 +69,143 @@ public class TriglavJob
     public void registerOrUpdate(JenkinsJob jenkinsJob)
             throws ApiException
     {
-        boolean requireSetLastJobMessageOffset = false;
+        applyRegistration(requestRegistration(jenkinsJob), null);
+    }
+
+    /**
+     * Send the registration without changing the trigger, so that the result can be applied by
+     * {@link #applyRegistration} later, e.g. together with other jobs.
+     */
+    Registration requestRegistration(JenkinsJob jenkinsJob)
+            throws ApiException
+    {
         Long jobId;
         if (isBlank(id())) {
-            requireSetLastJobMessageOffset = true;
             jobId = null;
         }
         else {
             jobId = Long.valueOf(id());
         }
 
+        String timeZone = parameters.timeZone();
         logger.fine(String.format("Register Or Update Job: ID: %s, URL: %s", jobId, jenkinsJob.url()));
-        JobResponse jr = client.registerOrUpdateJob(jobId, jenkinsJob.url(), resourceRequests(), parameters.logicalOp());
+        JobResponse jr = client.registerOrUpdateJob(jobId, jenkinsJob.url(), resourceRequests(timeZone), parameters.logicalOp());
+        return new Registration(jr, timeZone, fingerprint(jenkinsJob, timeZone), jobId == null);
+    }
+
+    /**
+     * @return true if the job is registered and nothing sent to Triglav has changed since the last registration.
+     */
+    public boolean isRegistrationUpToDate(JenkinsJob jenkinsJob)
+    {
+        String registeredFingerprint = parameters.registeredFingerprint();
+        return !isBlank(id())
+                && registeredFingerprint != null
+                && registeredFingerprint.equals(fingerprint(jenkinsJob, parameters.timeZone()));
+    }
+
+    /**
+     * Hash of what {@link #requestRegistration} sends, except resource ids which Triglav assigns.
+     */
+    private String fingerprint(JenkinsJob jenkinsJob, String timeZone)
+    {
+        return fingerprint(
+                jenkinsJob.url(),
+                parameters.resourceConfigs(),
+                timeZone,
+                parameters.timeUnit(),
+                parameters.spanInDays(),
+                parameters.logicalOp(),
+                parameters.isConsumable(),
+                parameters.isNotifiable());
+    }
+
+    static String fingerprint(
+            String url,
+            List<TriglavResourceConfig> resourceConfigs,
+            String timeZone,
+            TimeUnit timeUnit,
+            long spanInDays,
+            String logicalOp,
+            boolean isConsumable,
+            boolean isNotifiable)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(url).append('\n');
+        for (ResourceRequest rr : resourceRequests(resourceConfigs, timeZone, timeUnit, spanInDays, isConsumable, isNotifiable)) {
+            sb.append(rr.getUri()).append('\n');
+        }
+        sb.append(timeZone).append('\n')
+                .append(timeUnit == null ? null : timeUnit.getValue()).append('\n')
+                .append(spanInDays).append('\n')
+                .append(logicalOp).append('\n')
+                .append(isConsumable).append('\n')
+                .append(isNotifiable);
+        return Hashing.sha256().hashBytes(sb.toString().getBytes(Charsets.UTF_8)).toString();
+    }
 
-        parameters.setJobId(jr.getId().toString());
-        if (requireSetLastJobMessageOffset) {
-            setMessageOffset(client.getLastJobMessageId());
+    /**
+     * @param lastJobMessageId the message offset of a new job, or null to get it from Triglav.
+     */
+    void applyRegistration(Registration registration, Long lastJobMessageId)
+            throws ApiException
+    {
+        parameters.setJobId(registration.response.getId().toString());
+        parameters.setRegisteredTimeZone(registration.timeZone);
+        parameters.setRegisteredFingerprint(registration.fingerprint);
+        if (registration.isNew) {
+            setMessageOffset(lastJobMessageId != null ? lastJobMessageId : client.getLastJobMessageId());
         }
-        for (ResourceResponse rr : jr.getInputResources()) {
+        for (ResourceResponse rr : registration.response.getInputResources()) {
             parameters.setResourceId(rr.getUri(), rr.getId());
         }
     }
 
+    static final class Registration
+    {
+        private final JobResponse response;
+        private final String timeZone;
+        private final String fingerprint;
+        private final boolean isNew;
+
+        private Registration(JobResponse response, String timeZone, String fingerprint, boolean isNew)
+        {
+            this.response = response;
+            this.timeZone = timeZone;
+            this.fingerprint = fingerprint;
+            this.isNew = isNew;
+        }
+
+        boolean isNew()
+        {
+            return isNew;
+        }
+    }
+
+    /**
+     * Register the job again if the offset of its time zone has changed since the last registration, e.g. by DST.
+     * If the last offset is unknown, the current one is recorded without registration.
+     *
+     * @return true if the job is registered again.
+     */
+    public boolean refreshIfTimeZoneChanged(JenkinsJob jenkinsJob)
+            throws ApiException
+    {
+        String timeZone = parameters.timeZone();
+        String registeredTimeZone = parameters.registeredTimeZone();
+        if (registeredTimeZone == null) {
+            parameters.setRegisteredTimeZone(timeZone);
+            return false;
+        }
+        if (registeredTimeZone.equals(timeZone)) {
+            return false;
+        }
+        logger.info(String.format("Time zone offset of Job: %s has changed from %s to %s. Register again.",
+                jenkinsJob.name(), registeredTimeZone, timeZone));
+        registerOrUpdate(jenkinsJob);
+        return true;
+    }
+
     public void destroy()
             throws ApiException
     {
@@ -110,43 +219,132 @@ public class TriglavJob
         client.unregisterJob(jobId);
     }
 
-    private Optional<ImmutableMap<String, String>> consumeIfPossible()
+    /**
+     * Fetch up to {@code limit} messages in one request and advance the message offset once for the whole batch.
+     * One more message is fetched to know how old the messages left in Triglav are.
+     *
+     * @return build parameters of each message in the order they should be enqueued.
+     * @throws ApiException if Triglav could not be polled. The message offset is not changed.
+     */
+    public List<ImmutableMap<String, String>> poll(int limit)
+            throws ApiException
     {
         if (isBlank(id())) {
             logger.warning(String.format("Job ID does not exist."));
-            return Optional.absent();
+            return ImmutableList.of();
         }
-        Optional<JobMessageEachResponse> optional = client.consumeIfPossible(Long.valueOf(id()), messageOffset());
-        if (!optional.isPresent()) {
-            return Optional.absent();
+        return consume(client.consumeIfPossible(Long.valueOf(id()), messageOffset(), limit + 1L), limit);
+    }
+
+    interface PollCallback
+    {
+        void onPolled(List<ImmutableMap<String, String>> messages);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Non-blocking variant of {@link #poll(int)}.
+     */
+    public void pollAsync(final int limit, final PollCallback callback)
+    {
+        if (isBlank(id())) {
+            logger.warning(String.format("Job ID does not exist."));
+            callback.onPolled(ImmutableList.<ImmutableMap<String, String>>of());
+            return;
         }
-        JobMessageEachResponse m = optional.get();
-        setNextMessageOffset(m.getId());
+        client.consumeAsync(Long.valueOf(id()), messageOffset(), limit + 1L, new TriglavClient.ConsumeCallback()
+        {
+            @Override
+            public void onMessages(List<JobMessageEachResponse> messages)
+            {
+                List<ImmutableMap<String, String>> consumed;
+                try {
+                    consumed = consume(messages, limit);
+                }
+                catch (RuntimeException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onPolled(consumed);
+            }
+
+            @Override
+            public void onFailure(ApiException e)
+            {
+                callback.onFailure(e);
+            }
+        });
+    }
 
+    /**
+     * @param messages up to {@code limit + 1} messages. Messages after {@code limit} are left for the next polling.
+     */
+    private List<ImmutableMap<String, String>> consume(List<JobMessageEachResponse> messages, int limit)
+    {
+        long polledAtMillis = System.currentTimeMillis();
+        if (messages.size() > limit) {
+            parameters.consumerLag().recordPolling(polledAtMillis, messageTimeMillis(messages.get(limit)));
+            messages = messages.subList(0, limit);
+        }
+        else {
+            parameters.consumerLag().recordPolling(polledAtMillis, 0L);
+        }
+
+        if (messages.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        ImmutableList.Builder<ImmutableMap<String, String>> builder = ImmutableList.builder();
+        long lastMessageId = messageOffset();
+        for (JobMessageEachResponse m : messages) {
+            builder.add(toBuildParameters(m));
+            lastMessageId = Math.max(lastMessageId, m.getId());
+        }
+        setNextMessageOffset(lastMessageId);
+        return builder.build();
+    }
+
+    /**
+     * {@code time} of a job message is a unix timestamp in seconds.
+     */
+    static long messageTimeMillis(JobMessageEachResponse m)
+    {
+        return m.getTime() == null ? 0L : m.getTime() * 1000L;
+    }
+
+    static ImmutableMap<String, String> toBuildParameters(JobMessageEachResponse m)
+    {
         ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
         builder.put("TRIGLAV_JOB_MESSAGE_ID", m.getId().toString());
         builder.put("TRIGLAV_JOB_MESSAGE_TIME", m.getTime().toString());
         builder.put("TRIGLAV_JOB_MESSAGE_TIMEZONE", m.getTimezone());
         builder.put("TRIGLAV_JOB_ID", m.getJobId().toString());
-        return Optional.of(builder.build());
+        return builder.build();
     }
 
-    public boolean poll()
+    private List<ResourceRequest> resourceRequests(String timeZone)
     {
-        Optional<ImmutableMap<String, String>> optional = consumeIfPossible();
-        if (!optional.isPresent()) {
-            currentMessage = null;
-            return false;
-        }
-        currentMessage = optional.get();
-        return true;
+        return resourceRequests(
+                parameters.resourceConfigs(),
+                timeZone,
+                parameters.timeUnit(),
+                parameters.spanInDays(),
+                parameters.isConsumable(),
+                parameters.isNotifiable());
     }
 
-    private List<ResourceRequest> resourceRequests()
+    static List<ResourceRequest> resourceRequests(
+            List<TriglavResourceConfig> resourceConfigs,
+            final String timeZone,
+            final TimeUnit timeUnit,
+            final long spanInDays,
+            final boolean isConsumable,
+            final boolean isNotifiable)
     {
         return Lists.transform(
                 Lists.newArrayList(
-                        Iterables.filter(parameters.resourceConfigs(), new Predicate<TriglavResourceConfig>()
+                        Iterables.filter(resourceConfigs, new Predicate<TriglavResourceConfig>()
                         {
                             @Override
                             public boolean apply(@Nullable TriglavResourceConfig input)
@@ -173,14 +371,14 @@ public class TriglavJob
                         else {
                             resourceId = Long.valueOf(_resourceId);
                         }
-                        return client.createResourceRequest(
+                        return TriglavClient.createResourceRequest(
                                 resourceId,
                                 input.getResourceUri(),
-                                parameters.timeZone(),
-                                parameters.timeUnit(),
-                                parameters.spanInDays(),
-                                parameters.isConsumable(),
-                                parameters.isNotifiable());
+                                timeZone,
+                                timeUnit,
+                                spanInDays,
+                                isConsumable,
+                                isNotifiable);
                     }
                 });
     }
@@ -0,0 +1,218 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.ImmutableSortedMap;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Plugin-wide counters and histograms of the hot paths, exposed by {@link TriglavMetricsAction}.
+ * <p>
+ * A metric is identified by its name and labels, e.g. {@code triglav_requests_total{endpoint="fetch_job_messages",status="200"}}.
+ * Recording is lock-free, so it can be done on every request and every polling.
+ */
+public class TriglavMetrics
+{
+    static final String PREFIX = "polling_triglav_";
+    static final long[] LATENCY_BUCKETS_MILLIS = {1L, 5L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L};
+    static final long[] COUNT_BUCKETS = {0L, 1L, 2L, 5L, 10L, 20L, 50L, 100L};
+
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private TriglavMetrics()
+    {
+    }
+
+    public static void increment(String name, String... labels)
+    {
+        add(name, 1L, labels);
+    }
+
+    public static void add(String name, long delta, String... labels)
+    {
+        String key = key(name, labels);
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    public static void observeMillis(String name, long millis, String... labels)
+    {
+        observe(name, LATENCY_BUCKETS_MILLIS, millis, labels);
+    }
+
+    public static void observe(String name, long[] buckets, long value, String... labels)
+    {
+        String key = key(name, labels);
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram(name, labels, buckets);
+            histogram = histograms.putIfAbsent(key, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.observe(value);
+    }
+
+    public static long elapsedMillis(long startNanos)
+    {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+
+    /**
+     * Gauges are sampled when the metrics are read, not recorded.
+     */
+    static Map<String, Long> gauges()
+    {
+        return ImmutableSortedMap.<String, Long>naturalOrder()
+                .put("runner_queue_depth", (long) ItemRunner.getQueueDepth())
+                .put("runner_active_threads", (long) ItemRunner.getActiveCount())
+                .put("runner_in_flight_jobs", (long) ItemRunner.getInFlightCount())
+                .put("save_queue_size", (long) JobSaveQueue.size())
+                .put("reconcile_queue_size", (long) ReconcileQueue.size())
+                .build();
+    }
+
+    static JSONObject toJson()
+    {
+        JSONObject json = new JSONObject();
+        JSONObject c = new JSONObject();
+        for (Map.Entry<String, AtomicLong> entry : ImmutableSortedMap.copyOf(counters).entrySet()) {
+            c.put(entry.getKey(), entry.getValue().get());
+        }
+        json.put("counters", c);
+
+        JSONObject g = new JSONObject();
+        for (Map.Entry<String, Long> entry : gauges().entrySet()) {
+            g.put(entry.getKey(), entry.getValue());
+        }
+        json.put("gauges", g);
+
+        JSONObject h = new JSONObject();
+        for (Map.Entry<String, Histogram> entry : ImmutableSortedMap.copyOf(histograms).entrySet()) {
+            h.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("histograms", h);
+        return json;
+    }
+
+    static String toPrometheusText()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> entry : ImmutableSortedMap.copyOf(counters).entrySet()) {
+            sb.append(PREFIX).append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : gauges().entrySet()) {
+            sb.append(PREFIX).append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Histogram histogram : ImmutableSortedMap.copyOf(histograms).values()) {
+            histogram.appendPrometheusText(sb);
+        }
+        return sb.toString();
+    }
+
+    private static String key(String name, String... labels)
+    {
+        if (labels.length == 0) {
+            return name;
+        }
+        return name + "{" + labelsText(labels, null) + "}";
+    }
+
+    /**
+     * @param labels alternating label names and values.
+     */
+    private static String labelsText(String[] labels, String le)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"").append(String.valueOf(labels[i + 1]).replace("\"", "\\\"")).append('"');
+        }
+        if (le != null) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append("le=\"").append(le).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static final class Histogram
+    {
+        private final String name;
+        private final String[] labels;
+        private final long[] buckets;
+        private final AtomicLongArray counts;
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong count = new AtomicLong();
+
+        private Histogram(String name, String[] labels, long[] buckets)
+        {
+            this.name = name;
+            this.labels = labels;
+            this.buckets = buckets;
+            this.counts = new AtomicLongArray(buckets.length);
+        }
+
+        private void observe(long value)
+        {
+            for (int i = 0; i < buckets.length; i++) {
+                if (value <= buckets[i]) {
+                    counts.incrementAndGet(i);
+                    break;
+                }
+            }
+            sum.addAndGet(value);
+            count.incrementAndGet();
+        }
+
+        private JSONObject toJson()
+        {
+            JSONObject json = new JSONObject();
+            JSONArray b = new JSONArray();
+            long cumulative = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += counts.get(i);
+                JSONObject bucket = new JSONObject();
+                bucket.put("le", buckets[i]);
+                bucket.put("count", cumulative);
+                b.add(bucket);
+            }
+            json.put("buckets", b);
+            json.put("sum", sum.get());
+            json.put("count", count.get());
+            return json;
+        }
+
+        private void appendPrometheusText(StringBuilder sb)
+        {
+            long cumulative = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += counts.get(i);
+                sb.append(PREFIX).append(name).append("_bucket{").append(labelsText(labels, String.valueOf(buckets[i])))
+                        .append("} ").append(cumulative).append('\n');
+            }
+            sb.append(PREFIX).append(name).append("_bucket{").append(labelsText(labels, "+Inf"))
+                    .append("} ").append(count.get()).append('\n');
+            String l = labels.length == 0 ? "" : "{" + labelsText(labels, null) + "}";
+            sb.append(PREFIX).append(name).append("_sum").append(l).append(' ').append(sum.get()).append('\n');
+            sb.append(PREFIX).append(name).append("_count").append(l).append(' ').append(count.get()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Exposes {@link TriglavMetrics} at {@code /polling-triglav-metrics/} as JSON,
+ * or as Prometheus text with {@code ?format=prometheus}.
+ */
+@Extension
+public class TriglavMetricsAction
+        implements RootAction
+{
+    @Override
+    public String getIconFileName()
+    {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+        return "Polling Triglav Metrics";
+    }
+
+    @Override
+    public String getUrlName()
+    {
+        return "polling-triglav-metrics";
+    }
+
+    @SuppressWarnings("unused") // called reflectively by Stapler
+    public void doIndex(StaplerRequest req, StaplerResponse rsp)
+            throws IOException
+    {
+        rsp.setHeader("Cache-Control", "no-cache");
+        if ("prometheus".equals(req.getParameter("format"))) {
+            rsp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+            rsp.getWriter().write(TriglavMetrics.toPrometheusText());
+            return;
+        }
+        rsp.setContentType("application/json; charset=UTF-8");
+        rsp.getWriter().write(TriglavMetrics.toJson().toString());
+    }
+}
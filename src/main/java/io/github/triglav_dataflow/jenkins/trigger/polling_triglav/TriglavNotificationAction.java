@@ -0,0 +1,126 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.csrf.CrumbExclusion;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Endpoint for Triglav to notify that a job has new job messages.
+ * <p>
+ * {@code POST /polling-triglav-notification/notify?job_id=<Triglav Job ID>} with the header
+ * {@code X-Triglav-Token: <Notification Token>} polls the job right away instead of waiting for the next cron tick.
+ * Scheduled polling keeps running as a safety net. The endpoint is disabled while the notification token is empty.
+ */
+@Extension
+public class TriglavNotificationAction
+        implements UnprotectedRootAction
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    static final String URL_NAME = "polling-triglav-notification";
+    static final String TOKEN_HEADER = "X-Triglav-Token";
+
+    @Override
+    public String getIconFileName()
+    {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+        return null;
+    }
+
+    @Override
+    public String getUrlName()
+    {
+        return URL_NAME;
+    }
+
+    @RequirePOST
+    @SuppressWarnings("unused") // called reflectively by Stapler
+    public void doNotify(StaplerRequest req, StaplerResponse rsp)
+            throws IOException
+    {
+        String expectedToken = PollingTriglavTrigger.getNotificationToken();
+        if (isBlank(expectedToken)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND, "Notification is disabled.");
+            return;
+        }
+        String token = req.getHeader(TOKEN_HEADER);
+        if (token == null || !MessageDigest.isEqual(expectedToken.getBytes("UTF-8"), token.getBytes("UTF-8"))) {
+            rsp.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid token.");
+            return;
+        }
+
+        String triglavJobId = req.getParameter("job_id");
+        if (isBlank(triglavJobId)) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "job_id is required.");
+            return;
+        }
+
+        PollingTriglavTrigger trigger = lookupTrigger(triglavJobId);
+        if (trigger == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND, String.format("Triglav Job ID: %s is not found.", triglavJobId));
+            return;
+        }
+
+        logger.fine(String.format("Notified by Triglav: Triglav Job ID: %s", triglavJobId));
+        trigger.runNow();
+        // The polling is done asynchronously, or right after the polling already in progress.
+        rsp.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    private PollingTriglavTrigger lookupTrigger(String triglavJobId)
+    {
+        String jobFullName = ItemListener.findJenkinsJobFullName(triglavJobId);
+        if (jobFullName == null) {
+            return null;
+        }
+        AbstractProject project = Jenkins.getInstance().getItemByFullName(jobFullName, AbstractProject.class);
+        if (project == null) {
+            return null;
+        }
+        PollingTriglavTrigger trigger = (PollingTriglavTrigger) project.getTrigger(PollingTriglavTrigger.class);
+        if (trigger == null || !triglavJobId.contentEquals(trigger.parameters().jobId())) {
+            return null;
+        }
+        return trigger;
+    }
+
+    /**
+     * Triglav cannot get a crumb, so it is authenticated by the notification token instead.
+     */
+    @Extension
+    public static final class CrumbExclusionImpl
+            extends CrumbExclusion
+    {
+        @Override
+        public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
+                throws IOException, ServletException
+        {
+            String pathInfo = req.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith("/" + URL_NAME + "/")) {
+                chain.doFilter(req, resp);
+                return true;
+            }
+            return false;
+        }
+    }
+}
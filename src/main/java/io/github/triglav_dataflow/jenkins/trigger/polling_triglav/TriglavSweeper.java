@@ -0,0 +1,256 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.PeriodicWork;
+import io.github.triglav_dataflow.client.ApiException;
+import io.github.triglav_dataflow.client.JobResponse;
+import jenkins.model.Jenkins;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Strings.nullToEmpty;
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Repairs differences between {@link TriggerRegistry} and the Triglav jobs, e.g. left by a crash or by changes made
+ * while Triglav was down.
+ * <p>
+ * A sweep fetches all Triglav jobs by paged requests and looks up each job of the registry by id, so it costs
+ * O(number of jobs) with no request per job in the usual case. Then it
+ * <ul>
+ * <li>unregisters Triglav jobs whose url is under the root url of this Jenkins and which are unknown to the registry,
+ * by {@link TriglavCleanup}. Only the ones found by two successive sweeps, and not used by the Jenkins job their url
+ * points to, are unregistered, so that registrations in progress and a registry not saved yet are not touched.</li>
+ * <li>requests {@link ReconcileQueue} for jobs which are deleted, disabled, have no trigger, have another Triglav job id,
+ * or are registered with another url, e.g. after the root url has changed.</li>
+ * <li>registers jobs again whose Triglav job has been deleted. A job is regarded as deleted only when two successive
+ * sweeps have missed it and Triglav answers 404 to a request for it, so that an incomplete listing never resets jobs.</li>
+ * </ul>
+ */
+public class TriglavSweeper
+{
+    private static final Logger logger = PollingTriglavTrigger.getLogger();
+    private static final long PAGE_SIZE = 1000L;
+
+    private static volatile Set<Long> suspectedOrphans = ImmutableSet.of();
+    private static volatile Set<Long> suspectedMissing = ImmutableSet.of();
+    private static volatile long lastSweepMillis = 0L;
+
+    private TriglavSweeper()
+    {
+    }
+
+    static synchronized void sweep()
+    {
+        long startNanos = System.nanoTime();
+        String rootUrl = Jenkins.getInstance().getRootUrl();
+        if (isBlank(rootUrl)) {
+            logger.fine("Skip sweeping because Jenkins URL is not configured.");
+            return;
+        }
+
+        TriglavClient client;
+        List<JobResponse> triglavJobs;
+        try {
+            client = TriglavClient.fromTriggerAdminParameter();
+            triglavJobs = client.listAllJobs(PAGE_SIZE);
+        }
+        catch (ApiException | RuntimeException e) {
+            logger.log(Level.WARNING, String.format("Failed to list Triglav jobs: %s", e.getMessage()), e);
+            return;
+        }
+        Map<Long, String> triglavUrls = Maps.newHashMap();
+        for (JobResponse jr : triglavJobs) {
+            if (jr.getUri() != null) {
+                triglavUrls.put(jr.getId(), jr.getUri());
+            }
+        }
+
+        TriggerRegistry registry = TriggerRegistry.get();
+        Set<Long> knownIds = Sets.newHashSet();
+        Set<Long> missing = Sets.newHashSet();
+        int reconciled = 0;
+        int reregistered = 0;
+        for (Map.Entry<String, String> entry : registry.entries().entrySet()) {
+            String jobFullName = entry.getKey();
+            Long jobId = parseJobId(entry.getValue());
+            if (jobId != null) {
+                knownIds.add(jobId);
+            }
+            if (ReconcileQueue.status(jobFullName) != null) {
+                // Being reconciled.
+                continue;
+            }
+            AbstractProject project = Jenkins.getInstance().getItemByFullName(jobFullName, AbstractProject.class);
+            PollingTriglavTrigger t = project == null ? null : (PollingTriglavTrigger) project.getTrigger(PollingTriglavTrigger.class);
+            if (jobId == null || t == null || project.isDisabled() || !entry.getValue().contentEquals(nullToEmpty(t.parameters().jobId()))) {
+                ReconcileQueue.request(jobFullName);
+                reconciled++;
+                continue;
+            }
+
+            JenkinsJob jenkinsJob = new JenkinsJob(project);
+            String triglavUrl = triglavUrls.get(jobId);
+            if (triglavUrl == null) {
+                if (!suspectedMissing.contains(jobId)) {
+                    // Can be registered after the listing. Confirm by the next sweep.
+                    missing.add(jobId);
+                    continue;
+                }
+                JobResponse jr;
+                try {
+                    jr = client.getJob(jobId);
+                }
+                catch (ApiException | RuntimeException e) {
+                    logger.warning(String.format("Failed to get Triglav Job ID: %s of Job: %s: %s", jobId, jobFullName, e.getMessage()));
+                    missing.add(jobId);
+                    continue;
+                }
+                if (jr == null) {
+                    logger.warning(String.format("Triglav Job ID: %s of Job: %s is not found on Triglav. Register again.",
+                            jobId, jobFullName));
+                    t.parameters().initializeJobId();
+                    jenkinsJob.saveLater();
+                    ReconcileQueue.request(jobFullName);
+                    reregistered++;
+                    continue;
+                }
+                logger.fine(String.format("Triglav Job ID: %s of Job: %s is missing from the listing but exists.", jobId, jobFullName));
+                triglavUrl = nullToEmpty(jr.getUri());
+            }
+            if (!triglavUrl.equals(jenkinsJob.url())) {
+                logger.info(String.format("Triglav Job ID: %s of Job: %s is registered with %s. Update it.",
+                        jobId, jobFullName, triglavUrl));
+                t.parameters().setRegisteredFingerprint(null);
+                ReconcileQueue.request(jobFullName);
+                reconciled++;
+            }
+        }
+        suspectedMissing = ImmutableSet.copyOf(missing);
+
+        Set<Long> orphans = Sets.newHashSet();
+        for (Map.Entry<Long, String> entry : triglavUrls.entrySet()) {
+            if (entry.getValue().startsWith(rootUrl) && !knownIds.contains(entry.getKey())) {
+                orphans.add(entry.getKey());
+            }
+        }
+        Map<String, String> toUnregister = Maps.newHashMap();
+        for (Long jobId : Sets.newHashSet(orphans)) {
+            if (!suspectedOrphans.contains(jobId) || registry.findJenkinsJobFullName(jobId.toString()) != null) {
+                continue;
+            }
+            String triglavUrl = triglavUrls.get(jobId);
+            String ownerFullName = findOwner(rootUrl, triglavUrl, jobId);
+            if (ownerFullName != null) {
+                // The registry has not caught up with the job yet, e.g. after a crash.
+                logger.info(String.format("Triglav Job ID: %s is used by Job: %s. Add it to the registry.", jobId, ownerFullName));
+                registry.put(ownerFullName, jobId.toString());
+                orphans.remove(jobId);
+                continue;
+            }
+            logger.warning(String.format("Unregister Triglav Job ID: %s of %s because no job uses it.", jobId, triglavUrl));
+            toUnregister.put(jobId.toString(), triglavUrl);
+        }
+        TriglavCleanup.unregister(toUnregister);
+        for (String jobId : toUnregister.keySet()) {
+            orphans.remove(Long.valueOf(jobId));
+        }
+        suspectedOrphans = ImmutableSet.copyOf(orphans);
+
+        TriglavMetrics.add("sweep_repairs_total", reconciled, "kind", "reconcile");
+        TriglavMetrics.add("sweep_repairs_total", reregistered, "kind", "register_again");
+        TriglavMetrics.add("sweep_repairs_total", toUnregister.size(), "kind", "unregister_orphan");
+        long elapsedMillis = TriglavMetrics.elapsedMillis(startNanos);
+        TriglavMetrics.observeMillis("sweep_duration_ms", elapsedMillis);
+        logger.info(String.format("Swept %d Triglav jobs and %d jobs in %d ms: reconcile %d, register again %d, unregister %d, suspected missing %d, suspected orphans %d",
+                triglavUrls.size(), knownIds.size(), elapsedMillis, reconciled, reregistered, toUnregister.size(), missing.size(), orphans.size()));
+    }
+
+    /**
+     * @return full name of the Jenkins job at {@code triglavUrl} if its trigger uses the Triglav job, otherwise null.
+     */
+    private static String findOwner(String rootUrl, String triglavUrl, Long jobId)
+    {
+        String jobFullName = toJobFullName(triglavUrl.substring(rootUrl.length()));
+        if (jobFullName == null) {
+            return null;
+        }
+        AbstractProject project = Jenkins.getInstance().getItemByFullName(jobFullName, AbstractProject.class);
+        PollingTriglavTrigger t = project == null ? null : (PollingTriglavTrigger) project.getTrigger(PollingTriglavTrigger.class);
+        if (t == null || !jobId.toString().equals(t.parameters().jobId())) {
+            return null;
+        }
+        return project.getFullName();
+    }
+
+    /**
+     * @param path url of a job relative to the root url, e.g. {@code job/folder/job/name/}.
+     * @return e.g. {@code folder/name}, or null if the path is not the url of a job.
+     */
+    static String toJobFullName(String path)
+    {
+        String[] segments = path.split("/");
+        if (segments.length == 0 || segments.length % 2 != 0) {
+            return null;
+        }
+        List<String> names = Lists.newArrayList();
+        for (int i = 0; i < segments.length; i += 2) {
+            if (!"job".equals(segments[i]) || segments[i + 1].isEmpty()) {
+                return null;
+            }
+            try {
+                // Names are raw encoded, which leaves '+' as it is.
+                names.add(URLDecoder.decode(segments[i + 1].replace("+", "%2B"), "UTF-8"));
+            }
+            catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return Joiner.on('/').join(names);
+    }
+
+    private static Long parseJobId(String jobId)
+    {
+        try {
+            return Long.valueOf(jobId);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Extension
+    public static final class SweepWork
+            extends PeriodicWork
+    {
+        @Override
+        public long getRecurrencePeriod()
+        {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun()
+        {
+            long intervalMillis = java.util.concurrent.TimeUnit.MINUTES.toMillis(PollingTriglavTrigger.getSweepIntervalMinutes());
+            long now = System.currentTimeMillis();
+            if (intervalMillis <= 0L || now - lastSweepMillis < intervalMillis) {
+                return;
+            }
+            lastSweepMillis = now;
+            sweep();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ISO 8601 offsets (e.g. "+09:00", "-07:00", "Z") of zone ids, valid until the next offset transition of each zone.
+ * <p>
+ * A lookup is a map read and a time comparison. The offset is recomputed only after the transition has passed,
+ * so DST changes are reflected without restarting Jenkins.
+ */
+public class ZoneOffsetCache
+{
+    private static final long HOUR_MILLIS = 60L * 60L * 1000L;
+    private static final long DAY_MILLIS = 24L * HOUR_MILLIS;
+    /**
+     * Zones without transitions in this range are checked again after it.
+     */
+    private static final long MAX_VALIDITY_MILLIS = 366L * DAY_MILLIS;
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private ZoneOffsetCache()
+    {
+    }
+
+    public static String offset(String zoneID)
+    {
+        return offset(zoneID, System.currentTimeMillis());
+    }
+
+    static String offset(String zoneID, long nowMillis)
+    {
+        Entry entry = entries.get(zoneID);
+        if (entry == null || nowMillis >= entry.validUntilMillis || nowMillis < entry.validFromMillis) {
+            entry = compute(zoneID, nowMillis);
+            entries.put(zoneID, entry);
+        }
+        return entry.offset;
+    }
+
+    private static Entry compute(String zoneID, long nowMillis)
+    {
+        TimeZone timeZone = TimeZone.getTimeZone(zoneID);
+        int offsetMillis = timeZone.getOffset(nowMillis);
+        return new Entry(format(offsetMillis), nowMillis, nextTransitionMillis(timeZone, offsetMillis, nowMillis));
+    }
+
+    /**
+     * java.util.TimeZone of Java 7 has no public api for transitions, so find the first day whose offset differs
+     * and narrow it down by binary search.
+     */
+    static long nextTransitionMillis(TimeZone timeZone, int offsetMillis, long nowMillis)
+    {
+        long limit = nowMillis + MAX_VALIDITY_MILLIS;
+        long low = nowMillis;
+        long high = -1L;
+        for (long t = nowMillis + DAY_MILLIS; t <= limit; t += DAY_MILLIS) {
+            if (timeZone.getOffset(t) != offsetMillis) {
+                high = t;
+                break;
+            }
+            low = t;
+        }
+        if (high < 0L) {
+            return limit;
+        }
+        // offset(low) == offsetMillis, offset(high) != offsetMillis
+        while (high - low > 1000L) {
+            long mid = low + (high - low) / 2L;
+            if (timeZone.getOffset(mid) == offsetMillis) {
+                low = mid;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return high - high % 1000L;
+    }
+
+    /**
+     * Same as {@code new SimpleDateFormat("XXX")}.
+     */
+    static String format(int offsetMillis)
+    {
+        if (offsetMillis == 0) {
+            return "Z";
+        }
+        int offsetMinutes = Math.abs(offsetMillis) / 60000;
+        return String.format("%s%02d:%02d", offsetMillis < 0 ? "-" : "+", offsetMinutes / 60, offsetMinutes % 60);
+    }
+
+    private static final class Entry
+    {
+        private final String offset;
+        private final long validFromMillis;
+        private final long validUntilMillis;
+
+        private Entry(String offset, long validFromMillis, long validUntilMillis)
+        {
+            this.offset = offset;
+            this.validFromMillis = validFromMillis;
+            this.validUntilMillis = validUntilMillis;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Lists;
+import hudson.model.FreeStyleProject;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates thousands of jobs with {@link PollingTriglavTrigger} against {@link FakeTriglavServer},
+ * drives cron ticks and reports throughput, latency, thread counts and heap.
+ * <p>
+ * Run by {@code ./gradlew scaleTest}. Parameters are given by system properties:
+ * <ul>
+ * <li>{@code scale.jobs}: number of jobs (default: 10000)</li>
+ * <li>{@code scale.ticks}: number of cron ticks (default: 5)</li>
+ * <li>{@code scale.messagesPerJob}: job messages published per job before the first tick (default: 1)</li>
+ * <li>{@code scale.latencyMillis}, {@code scale.latencyJitterMillis}: latency of the fake Triglav (default: 5, 5)</li>
+ * <li>{@code scale.pollingThreads}: Polling Threads (default: 100)</li>
+ * <li>{@code scale.asyncPolling}: Async Polling (default: false)</li>
+ * </ul>
+ * The report is written to {@code build/reports/scale/report.txt}.
+ * Builds are only enqueued, since Jenkins has no executors here.
+ */
+public class ScaleHarness
+{
+    private static final long TICK_TIMEOUT_MILLIS = 10L * 60L * 1000L;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final int numJobs = Integer.getInteger("scale.jobs", 10000);
+    private final int numTicks = Integer.getInteger("scale.ticks", 5);
+    private final int messagesPerJob = Integer.getInteger("scale.messagesPerJob", 1);
+    private final long latencyMillis = Long.getLong("scale.latencyMillis", 5L);
+    private final long latencyJitterMillis = Long.getLong("scale.latencyJitterMillis", 5L);
+    private final int pollingThreads = Integer.getInteger("scale.pollingThreads", 100);
+    private final boolean asyncPolling = Boolean.getBoolean("scale.asyncPolling");
+
+    private FakeTriglavServer triglav;
+    private final List<PollingTriglavTrigger> triggers = Lists.newArrayList();
+    private final List<String> report = Lists.newArrayList();
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        triglav = new FakeTriglavServer(0, 64);
+        triglav.setLatency(latencyMillis, latencyJitterMillis);
+        triglav.start();
+
+        j.jenkins.setNumExecutors(0);
+        PollingTriglavTrigger.getClassDescriptor().configure(null, globalConfiguration(triglav.apiUrl()));
+    }
+
+    @After
+    public void tearDown()
+    {
+        ItemRunner.shutdown();
+        if (triglav != null) {
+            triglav.stop();
+        }
+    }
+
+    @Test
+    public void pollManyJobs()
+            throws Exception
+    {
+        long startNanos = System.nanoTime();
+        for (int i = 1; i <= numJobs; i++) {
+            FreeStyleProject project = j.createFreeStyleProject(String.format("scale-%05d", i));
+            PollingTriglavTrigger trigger = newTrigger(i);
+            project.addTrigger(trigger);
+            trigger.start(project, true);
+            triggers.add(trigger);
+            triglav.registerJob(i);
+        }
+        record("Created %d jobs in %d ms", numJobs, TriglavMetrics.elapsedMillis(startNanos));
+        sample("after creating jobs");
+
+        long now = System.currentTimeMillis() / 1000L;
+        for (int i = 1; i <= numJobs; i++) {
+            for (int m = 0; m < messagesPerJob; m++) {
+                triglav.publish(i, now, "+09:00");
+            }
+        }
+
+        for (int tick = 1; tick <= numTicks; tick++) {
+            long consumedBefore = triglav.consumedMessages();
+            long tickStartNanos = System.nanoTime();
+            // Same as what hudson.triggers.Trigger.Cron does on each tick.
+            for (PollingTriglavTrigger trigger : triggers) {
+                trigger.run();
+            }
+            long submitMillis = TriglavMetrics.elapsedMillis(tickStartNanos);
+            awaitPollings();
+            long tickMillis = TriglavMetrics.elapsedMillis(tickStartNanos);
+            long consumed = triglav.consumedMessages() - consumedBefore;
+            record("Tick %d: submitted in %d ms, finished in %d ms, consumed %d messages (%.1f messages/s), queue length %d",
+                    tick, submitMillis, tickMillis, consumed, consumed * 1000.0 / Math.max(1L, tickMillis), j.jenkins.getQueue().getItems().length);
+            sample(String.format("tick %d", tick));
+            // Pollings are skipped until the minimum polling interval has passed.
+            Thread.sleep(1000L);
+        }
+
+        for (Map.Entry<String, Long> entry : triglav.requestCounts().entrySet()) {
+            record("Fake Triglav requests: %s = %d", entry.getKey(), entry.getValue());
+        }
+        record("Metrics:%n%s", TriglavMetrics.toPrometheusText());
+        writeReport();
+    }
+
+    private PollingTriglavTrigger newTrigger(int triglavJobId)
+            throws Exception
+    {
+        return new PollingTriglavTrigger(
+                String.valueOf(triglavJobId),
+                "scale",
+                "scale",
+                "LOCAL",
+                "fake-api-key",
+                0L,
+                "Asia/Tokyo",
+                "daily",
+                "",
+                "or",
+                32L,
+                Lists.newArrayList(new TriglavResourceConfig(String.valueOf(triglavJobId), "hdfs://example.com/scale/" + triglavJobId)),
+                1L,
+                1L);
+    }
+
+    private JSONObject globalConfiguration(String apiUrl)
+    {
+        JSONObject formData = new JSONObject();
+        formData.put("crontabSpec", "* * * * *");
+        formData.put("triglavApiUrl", apiUrl);
+        formData.put("adminUsername", "admin");
+        formData.put("adminPassword", "admin");
+        formData.put("adminApiKey", "");
+        formData.put("maxEnqueueCount", 10);
+        formData.put("pollingThreads", pollingThreads);
+        formData.put("asyncPolling", asyncPolling);
+        formData.put("notificationToken", "");
+        formData.put("minPollingIntervalSeconds", 1);
+        formData.put("maxPollingIntervalSeconds", 1);
+        formData.put("circuitBreakerFailureThreshold", 5);
+        formData.put("circuitBreakerOpenSeconds", 30);
+        formData.put("retryMaxAttempts", 3);
+        formData.put("retryBaseDelayMillis", 200);
+        formData.put("retryMaxTotalDelayMillis", 3000);
+        formData.put("registrationThreads", 20);
+        formData.put("cleanupTimeoutSeconds", 30);
+        formData.put("sweepIntervalMinutes", 60);
+        formData.put("saveBatchSize", 100);
+        formData.put("saveIntervalSeconds", 10);
+        formData.put("maxIdleConnections", 20);
+        formData.put("keepAliveSeconds", 300);
+        return formData;
+    }
+
+    private void awaitPollings()
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TICK_TIMEOUT_MILLIS;
+        while (ItemRunner.getInFlightCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                record("Timed out: %d pollings are still in flight", ItemRunner.getInFlightCount());
+                return;
+            }
+            Thread.sleep(10L);
+        }
+    }
+
+    private void sample(String label)
+    {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        record("[%s] threads: %d (peak %d), heap used: %d MB / committed: %d MB",
+                label,
+                ManagementFactory.getThreadMXBean().getThreadCount(),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(),
+                heap.getUsed() / 1024L / 1024L,
+                heap.getCommitted() / 1024L / 1024L);
+    }
+
+    private void record(String format, Object... args)
+    {
+        String line = String.format(format, args);
+        System.out.println(line);
+        report.add(line);
+    }
+
+    private void writeReport()
+            throws Exception
+    {
+        File dir = new File(System.getProperty("scale.reportDir", "build/reports/scale"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "report.txt")), "UTF-8"));
+        try {
+            writer.println(String.format("jobs=%d ticks=%d messagesPerJob=%d latencyMillis=%d+%d pollingThreads=%d asyncPolling=%s",
+                    numJobs, numTicks, messagesPerJob, latencyMillis, latencyJitterMillis, pollingThreads, asyncPolling));
+            for (String line : report) {
+                writer.println(line);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
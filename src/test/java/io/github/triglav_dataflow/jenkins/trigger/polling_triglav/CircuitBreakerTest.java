@@ -0,0 +1,91 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Jenkins is not running here, so the breaker uses its default threshold and open period.
+ */
+public class CircuitBreakerTest
+{
+    private static final long NOW = 1000000L;
+    private static final long OPEN_MILLIS = CircuitBreaker.DEFAULT_OPEN_SECONDS * 1000L;
+
+    @Test
+    public void opensAtThreshold()
+    {
+        CircuitBreaker breaker = new CircuitBreaker("http://triglav.example.com/api/v1/");
+        for (int i = 1; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(NOW);
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertTrue(breaker.allowRequest(NOW));
+        }
+        breaker.recordFailure(NOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(NOW));
+        assertFalse(breaker.allowRequest(NOW + OPEN_MILLIS - 1L));
+    }
+
+    @Test
+    public void successResetsConsecutiveFailures()
+    {
+        CircuitBreaker breaker = new CircuitBreaker("http://triglav.example.com/api/v1/");
+        for (int i = 1; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(NOW);
+        }
+        breaker.record(404);
+        breaker.recordFailure(NOW);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void letsOneProbeThroughAfterOpenPeriod()
+    {
+        CircuitBreaker breaker = open();
+        assertTrue(breaker.allowRequest(NOW + OPEN_MILLIS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(NOW + OPEN_MILLIS));
+        assertFalse(breaker.allowRequest(NOW + OPEN_MILLIS * 2L));
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertTrue(breaker.allowRequest(NOW + OPEN_MILLIS));
+    }
+
+    @Test
+    public void reopensOnFailedProbe()
+    {
+        CircuitBreaker breaker = open();
+        long probeMillis = NOW + OPEN_MILLIS;
+        assertTrue(breaker.allowRequest(probeMillis));
+        breaker.recordFailure(probeMillis);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(probeMillis + OPEN_MILLIS - 1L));
+        assertTrue(breaker.allowRequest(probeMillis + OPEN_MILLIS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void countsOnlyUnavailability()
+    {
+        assertTrue(CircuitBreaker.isFailure(0));
+        assertTrue(CircuitBreaker.isFailure(503));
+        assertFalse(CircuitBreaker.isFailure(401));
+        assertFalse(CircuitBreaker.isFailure(404));
+    }
+
+    private static CircuitBreaker open()
+    {
+        CircuitBreaker breaker = new CircuitBreaker("http://triglav.example.com/api/v1/");
+        for (int i = 0; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(NOW);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,484 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in of the Triglav REST API for tests, scale tests and local debugging.
+ * <p>
+ * Implements the endpoints this plugin calls: {@code POST /auth/token}, {@code GET /auth/me},
+ * {@code GET /jobs}, {@code PUT /jobs}, {@code GET /jobs/{id_or_uri}}, {@code DELETE /jobs/{id_or_uri}}, {@code GET /job_messages} and
+ * {@code GET /job_messages/last_id}. Job messages are published by {@link #publish}
+ * or by {@link #startGenerator}. Latency and failures can be injected.
+ * <p>
+ * Run {@code main} to use it with {@code ./gradlew server}:
+ * set <b>Triglav Url</b> to {@code http://localhost:<port>/api/v1/}.
+ */
+public class FakeTriglavServer
+{
+    private static final Logger logger = Logger.getLogger(FakeTriglavServer.class.getName());
+    public static final String BASE_PATH = "/api/v1";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService generator = Executors.newSingleThreadScheduledExecutor();
+    private final Random random = new Random();
+
+    private final AtomicLong nextJobId = new AtomicLong(1L);
+    private final AtomicLong nextResourceId = new AtomicLong(1L);
+    private final AtomicLong nextMessageId = new AtomicLong(1L);
+    private final ConcurrentMap<String, Long> jobIdsByUri = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, ConcurrentSkipListMap<Long, JSONObject>> messagesByJobId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong consumedMessages = new AtomicLong();
+
+    private volatile long latencyMillis = 0L;
+    private volatile long latencyJitterMillis = 0L;
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+    private volatile int failureStatus = 503;
+
+    public FakeTriglavServer(int port, int threads)
+            throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(BASE_PATH + "/", new Handler());
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7800;
+        FakeTriglavServer server = new FakeTriglavServer(port, 32);
+        server.start();
+        if (args.length > 1) {
+            server.startGenerator(Long.parseLong(args[1]), 1000L);
+        }
+        logger.info(String.format("Fake Triglav is listening on %s", server.apiUrl()));
+        Thread.currentThread().join();
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public void stop()
+    {
+        generator.shutdownNow();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String apiUrl()
+    {
+        return String.format("http://127.0.0.1:%d%s/", server.getAddress().getPort(), BASE_PATH);
+    }
+
+    /**
+     * Every response is delayed by {@code latencyMillis} plus a random value up to {@code jitterMillis}.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis)
+    {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+    }
+
+    /**
+     * The next {@code count} requests fail with {@code status}.
+     */
+    public void injectFailures(int count, int status)
+    {
+        this.failureStatus = status;
+        this.failuresToInject.set(count);
+    }
+
+    /**
+     * Make a job known without {@code PUT /jobs}, e.g. for jobs whose Triglav job id is preset.
+     */
+    public void registerJob(long jobId)
+    {
+        messages(jobId);
+        long next;
+        do {
+            next = nextJobId.get();
+        }
+        while (next <= jobId && !nextJobId.compareAndSet(next, jobId + 1L));
+    }
+
+    public long publish(long jobId, long timeSeconds, String timezone)
+    {
+        long id = nextMessageId.getAndIncrement();
+        JSONObject m = new JSONObject();
+        m.put("id", id);
+        m.put("job_id", jobId);
+        m.put("time", timeSeconds);
+        m.put("timezone", timezone);
+        messages(jobId).put(id, m);
+        return id;
+    }
+
+    /**
+     * Publish {@code messagesPerPeriod} messages for randomly chosen known jobs every {@code periodMillis}.
+     */
+    public void startGenerator(final long messagesPerPeriod, long periodMillis)
+    {
+        generator.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                List<Long> jobIds = Lists.newArrayList(messagesByJobId.keySet());
+                if (jobIds.isEmpty()) {
+                    return;
+                }
+                long now = System.currentTimeMillis() / 1000L;
+                for (long i = 0; i < messagesPerPeriod; i++) {
+                    publish(jobIds.get(random.nextInt(jobIds.size())), now, "+09:00");
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long lastMessageId()
+    {
+        return nextMessageId.get() - 1L;
+    }
+
+    public long consumedMessages()
+    {
+        return consumedMessages.get();
+    }
+
+    public Map<String, Long> requestCounts()
+    {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : requestCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    private ConcurrentSkipListMap<Long, JSONObject> messages(long jobId)
+    {
+        ConcurrentSkipListMap<Long, JSONObject> messages = messagesByJobId.get(jobId);
+        if (messages != null) {
+            return messages;
+        }
+        ConcurrentSkipListMap<Long, JSONObject> newMessages = new ConcurrentSkipListMap<>();
+        messages = messagesByJobId.putIfAbsent(jobId, newMessages);
+        return messages == null ? newMessages : messages;
+    }
+
+    private class Handler
+            implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange)
+                throws IOException
+        {
+            try {
+                String method = exchange.getRequestMethod();
+                String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+                count(method + " " + normalize(path));
+                delay();
+                if (shouldFail()) {
+                    respond(exchange, failureStatus, error("injected failure"));
+                    return;
+                }
+                route(exchange, method, path);
+            }
+            catch (RuntimeException e) {
+                respond(exchange, 500, error(e.toString()));
+            }
+            finally {
+                exchange.close();
+            }
+        }
+
+        private void route(HttpExchange exchange, String method, String path)
+                throws IOException
+        {
+            if ("POST".equals(method) && "/auth/token".equals(path)) {
+                JSONObject token = new JSONObject();
+                token.put("access_token", UUID.randomUUID().toString());
+                respond(exchange, 200, token.toString());
+                return;
+            }
+            if (!isAuthorized(exchange)) {
+                respond(exchange, 401, error("Unauthorized"));
+                return;
+            }
+            if ("GET".equals(method) && "/auth/me".equals(path)) {
+                JSONObject me = new JSONObject();
+                me.put("id", 1);
+                me.put("name", "fake");
+                me.put("authenticator", "local");
+                respond(exchange, 200, me.toString());
+                return;
+            }
+            if ("GET".equals(method) && "/jobs".equals(path)) {
+                respond(exchange, 200, listJobs(query(exchange)).toString());
+                return;
+            }
+            if ("GET".equals(method) && path.startsWith("/jobs/")) {
+                JSONObject job = getJob(URLDecoder.decode(path.substring("/jobs/".length()), "UTF-8"));
+                if (job == null) {
+                    respond(exchange, 404, error("Not Found"));
+                }
+                else {
+                    respond(exchange, 200, job.toString());
+                }
+                return;
+            }
+            if ("PUT".equals(method) && "/jobs".equals(path)) {
+                respond(exchange, 200, createOrUpdateJob(JSONObject.fromObject(IOUtils.toString(exchange.getRequestBody(), "UTF-8"))).toString());
+                return;
+            }
+            if ("DELETE".equals(method) && path.startsWith("/jobs/")) {
+                String idOrUri = URLDecoder.decode(path.substring("/jobs/".length()), "UTF-8");
+                Long jobId = jobIdsByUri.remove(idOrUri);
+                if (jobId == null) {
+                    jobId = parseLong(idOrUri, -1L);
+                    jobIdsByUri.values().remove(jobId);
+                }
+                messagesByJobId.remove(jobId);
+                respond(exchange, 200, "{}");
+                return;
+            }
+            if ("GET".equals(method) && "/job_messages/last_id".equals(path)) {
+                JSONObject lastId = new JSONObject();
+                lastId.put("id", lastMessageId());
+                respond(exchange, 200, lastId.toString());
+                return;
+            }
+            if ("GET".equals(method) && "/job_messages".equals(path)) {
+                respond(exchange, 200, fetchJobMessages(query(exchange)).toString());
+                return;
+            }
+            respond(exchange, 404, error("Not Found"));
+        }
+
+        private JSONArray listJobs(Map<String, String> query)
+        {
+            long offset = parseLong(query.get("offset"), 0L);
+            long limit = parseLong(query.get("limit"), 100L);
+            ConcurrentSkipListMap<Long, String> urisById = new ConcurrentSkipListMap<>();
+            for (Map.Entry<String, Long> entry : jobIdsByUri.entrySet()) {
+                urisById.put(entry.getValue(), entry.getKey());
+            }
+            JSONArray jobs = new JSONArray();
+            for (Map.Entry<Long, String> entry : urisById.tailMap(offset, true).entrySet()) {
+                if (jobs.size() >= limit) {
+                    break;
+                }
+                jobs.add(job(entry.getValue(), entry.getKey()));
+            }
+            return jobs;
+        }
+
+        private JSONObject getJob(String idOrUri)
+        {
+            Long jobId = jobIdsByUri.get(idOrUri);
+            if (jobId != null) {
+                return job(idOrUri, jobId);
+            }
+            long id = parseLong(idOrUri, -1L);
+            for (Map.Entry<String, Long> entry : jobIdsByUri.entrySet()) {
+                if (entry.getValue() == id) {
+                    return job(entry.getKey(), id);
+                }
+            }
+            return null;
+        }
+
+        private JSONObject job(String uri, long jobId)
+        {
+            JSONObject job = new JSONObject();
+            job.put("id", jobId);
+            job.put("uri", uri);
+            job.put("input_resources", new JSONArray());
+            job.put("output_resources", new JSONArray());
+            return job;
+        }
+
+        private JSONObject createOrUpdateJob(JSONObject request)
+        {
+            String uri = request.optString("uri");
+            Long jobId = request.has("id") && !request.get("id").equals(JSONNull.getInstance())
+                    ? request.getLong("id") : jobIdsByUri.get(uri);
+            if (jobId == null) {
+                jobId = nextJobId.getAndIncrement();
+            }
+            jobIdsByUri.put(uri, jobId);
+            messages(jobId);
+
+            JSONArray inputResources = new JSONArray();
+            JSONArray requested = request.optJSONArray("input_resources");
+            if (requested != null) {
+                for (Object o : requested) {
+                    JSONObject resource = JSONObject.fromObject(o);
+                    if (!resource.has("id") || resource.get("id").equals(JSONNull.getInstance())) {
+                        resource.put("id", nextResourceId.getAndIncrement());
+                    }
+                    inputResources.add(resource);
+                }
+            }
+            JSONObject job = new JSONObject();
+            job.put("id", jobId);
+            job.put("uri", uri);
+            job.put("logical_op", request.optString("logical_op", "or"));
+            job.put("input_resources", inputResources);
+            job.put("output_resources", new JSONArray());
+            return job;
+        }
+
+        private JSONArray fetchJobMessages(Map<String, String> query)
+        {
+            long offset = parseLong(query.get("offset"), 0L);
+            long jobId = parseLong(query.get("job_id"), -1L);
+            long limit = parseLong(query.get("limit"), 100L);
+            JSONArray messages = new JSONArray();
+            ConcurrentSkipListMap<Long, JSONObject> jobMessages = messagesByJobId.get(jobId);
+            if (jobMessages == null) {
+                return messages;
+            }
+            for (JSONObject m : jobMessages.tailMap(offset, true).values()) {
+                if (messages.size() >= limit) {
+                    break;
+                }
+                messages.add(m);
+            }
+            consumedMessages.addAndGet(messages.size());
+            return messages;
+        }
+
+        private boolean shouldFail()
+        {
+            int remaining;
+            do {
+                remaining = failuresToInject.get();
+                if (remaining <= 0) {
+                    return false;
+                }
+            }
+            while (!failuresToInject.compareAndSet(remaining, remaining - 1));
+            return true;
+        }
+
+        private boolean isAuthorized(HttpExchange exchange)
+        {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            return authorization != null && !authorization.isEmpty();
+        }
+
+        private void delay()
+        {
+            long delay = latencyMillis;
+            if (latencyJitterMillis > 0L) {
+                delay += (long) (random.nextDouble() * latencyJitterMillis);
+            }
+            if (delay <= 0L) {
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void count(String endpoint)
+        {
+            AtomicLong count = requestCounts.get(endpoint);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = requestCounts.putIfAbsent(endpoint, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        private String normalize(String path)
+        {
+            return path.startsWith("/jobs/") ? "/jobs/{id_or_uri}" : path;
+        }
+
+        private Map<String, String> query(HttpExchange exchange)
+                throws IOException
+        {
+            Map<String, String> query = new HashMap<>();
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery == null) {
+                return query;
+            }
+            for (String pair : rawQuery.split("&")) {
+                int i = pair.indexOf('=');
+                if (i > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"), URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+                }
+            }
+            return query;
+        }
+
+        private long parseLong(String value, long defaultValue)
+        {
+            try {
+                return Long.parseLong(value);
+            }
+            catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        private String error(String message)
+        {
+            JSONObject error = new JSONObject();
+            error.put("error", message);
+            return error.toString();
+        }
+
+        private void respond(HttpExchange exchange, int status, String body)
+                throws IOException
+        {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import hudson.model.FreeStyleProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobSaveQueueTest
+{
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void forgetsDeletedJobs()
+            throws Exception
+    {
+        FreeStyleProject project = j.createFreeStyleProject("deleted");
+        File rootDir = project.getRootDir();
+        JobSaveQueue.enqueue(project);
+        assertEquals(1, JobSaveQueue.size());
+
+        project.delete();
+        assertEquals(0, JobSaveQueue.size());
+        JobSaveQueue.flush();
+        assertFalse(rootDir.exists());
+    }
+
+    @Test
+    public void doesNotSaveJobsNoLongerInJenkins()
+            throws Exception
+    {
+        FreeStyleProject project = j.createFreeStyleProject("deleted");
+        File rootDir = project.getRootDir();
+        project.delete();
+
+        JobSaveQueue.enqueue(project);
+        JobSaveQueue.flush();
+        assertFalse(rootDir.exists());
+        assertEquals(0, JobSaveQueue.size());
+    }
+
+    @Test
+    public void savesLiveJobs()
+            throws Exception
+    {
+        FreeStyleProject project = j.createFreeStyleProject("live");
+        File configFile = new File(project.getRootDir(), "config.xml");
+        assertTrue(configFile.delete());
+
+        JobSaveQueue.enqueue(project);
+        JobSaveQueue.flush();
+        assertTrue(configFile.exists());
+        assertEquals(0, JobSaveQueue.size());
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OffsetJournalTest
+{
+    private static final long HEADER_SIZE = 8L;
+    private static final long RECORD_SIZE = 20L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void truncatesTornTailAndKeepsAppending()
+            throws IOException
+    {
+        File file = temporaryFolder.newFile("offsets.journal");
+        OffsetJournal journal = new OffsetJournal(file);
+        journal.put(1L, 10L);
+        journal.put(2L, 20L);
+        journal.sync();
+
+        // A crash in the middle of an append leaves a partial record.
+        appendBytes(file, new byte[] {1, 2, 3, 4, 5, 6, 7});
+
+        OffsetJournal reloaded = new OffsetJournal(file);
+        assertEquals(Long.valueOf(10L), reloaded.offset(1L));
+        assertEquals(Long.valueOf(20L), reloaded.offset(2L));
+        assertEquals(HEADER_SIZE + 2L * RECORD_SIZE, file.length());
+
+        reloaded.put(1L, 11L);
+        reloaded.sync();
+        assertEquals(Long.valueOf(11L), new OffsetJournal(file).offset(1L));
+    }
+
+    @Test
+    public void ignoresRecordsAfterBrokenChecksum()
+            throws IOException
+    {
+        File file = temporaryFolder.newFile("offsets.journal");
+        OffsetJournal journal = new OffsetJournal(file);
+        journal.put(1L, 10L);
+        journal.sync();
+
+        byte[] broken = new byte[(int) RECORD_SIZE];
+        broken[7] = 1; // Triglav Job ID: 1 with a zero checksum
+        appendBytes(file, broken);
+
+        OffsetJournal reloaded = new OffsetJournal(file);
+        assertEquals(Long.valueOf(10L), reloaded.offset(1L));
+        assertEquals(HEADER_SIZE + RECORD_SIZE, file.length());
+    }
+
+    @Test
+    public void compactsIntoOneRecordPerLiveJob()
+            throws IOException
+    {
+        File file = temporaryFolder.newFile("offsets.journal");
+        OffsetJournal journal = new OffsetJournal(file);
+        for (long offset = 1L; offset <= 2000L; offset++) {
+            journal.put(1L, offset);
+        }
+        journal.put(2L, 5L);
+        journal.remove(2L);
+        journal.sync();
+
+        assertEquals(HEADER_SIZE + RECORD_SIZE, file.length());
+        OffsetJournal reloaded = new OffsetJournal(file);
+        assertEquals(Long.valueOf(2000L), reloaded.offset(1L));
+        assertNull(reloaded.offset(2L));
+
+        // Appends after the compaction go to the compacted journal.
+        journal.put(3L, 7L);
+        journal.sync();
+        assertEquals(Long.valueOf(7L), new OffsetJournal(file).offset(3L));
+        assertEquals(Long.valueOf(2000L), new OffsetJournal(file).offset(1L));
+    }
+
+    private static void appendBytes(File file, byte[] bytes)
+            throws IOException
+    {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PollingBackoffTest
+{
+    private static final long NOW = 1000000L;
+    private static final long MIN_SECONDS = 10L;
+    private static final long MAX_SECONDS = 60L;
+
+    @Test
+    public void doublesFromSecondEmptyPollingUpToMax()
+    {
+        PollingBackoff backoff = new PollingBackoff();
+        long[] expectedSeconds = {10L, 20L, 40L, 60L, 60L};
+        for (long seconds : expectedSeconds) {
+            backoff.record(NOW, false, MIN_SECONDS, MAX_SECONDS);
+            assertEquals(NOW + seconds * 1000L, backoff.getNextPollingTimeMillis());
+        }
+    }
+
+    @Test
+    public void clampsToMaxAfterManyEmptyPollings()
+    {
+        PollingBackoff backoff = new PollingBackoff();
+        for (int i = 0; i < 100; i++) {
+            backoff.record(NOW, false, MIN_SECONDS, MAX_SECONDS);
+        }
+        assertEquals(NOW + MAX_SECONDS * 1000L, backoff.getNextPollingTimeMillis());
+
+        // A max below the min is raised to the min.
+        backoff.record(NOW, false, 30L, 10L);
+        assertEquals(NOW + 30L * 1000L, backoff.getNextPollingTimeMillis());
+    }
+
+    @Test
+    public void goesBackToMinWhenMessagesAreFound()
+    {
+        PollingBackoff backoff = new PollingBackoff();
+        for (int i = 0; i < 5; i++) {
+            backoff.record(NOW, false, MIN_SECONDS, MAX_SECONDS);
+        }
+        backoff.record(NOW, true, MIN_SECONDS, MAX_SECONDS);
+        assertEquals(0, backoff.getConsecutiveEmptyPolls());
+        assertEquals(NOW + MIN_SECONDS * 1000L, backoff.getNextPollingTimeMillis());
+    }
+
+    @Test
+    public void failedPollingKeepsInterval()
+    {
+        PollingBackoff backoff = new PollingBackoff();
+        backoff.record(NOW, false, MIN_SECONDS, MAX_SECONDS);
+        backoff.record(NOW, false, MIN_SECONDS, MAX_SECONDS);
+        for (int i = 0; i < 5; i++) {
+            backoff.recordFailure(NOW, MIN_SECONDS, MAX_SECONDS);
+        }
+        assertEquals(2, backoff.getConsecutiveEmptyPolls());
+        assertEquals(NOW + 20L * 1000L, backoff.getNextPollingTimeMillis());
+    }
+
+    @Test
+    public void isDueAtNextPollingTimeWithTolerance()
+    {
+        PollingBackoff backoff = new PollingBackoff();
+        assertTrue(backoff.isDue(NOW));
+        backoff.record(NOW, false, MAX_SECONDS, MAX_SECONDS);
+        assertFalse(backoff.isDue(NOW + 1000L));
+        assertTrue(backoff.isDue(NOW + MAX_SECONDS * 1000L - 1000L));
+
+        backoff.reset();
+        assertTrue(backoff.isDue(NOW));
+    }
+}
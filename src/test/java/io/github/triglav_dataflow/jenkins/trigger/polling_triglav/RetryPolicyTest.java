@@ -0,0 +1,104 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.github.triglav_dataflow.client.ApiException;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest
+{
+    @Test
+    public void readsRetryAfterInSeconds()
+    {
+        assertEquals(120000L, RetryPolicy.retryAfterMillis(retryAfter("120")));
+        assertEquals(0L, RetryPolicy.retryAfterMillis(retryAfter("-1")));
+        assertEquals(0L, RetryPolicy.retryAfterMillis(null));
+        assertEquals(0L, RetryPolicy.retryAfterMillis(ImmutableMap.<String, List<String>>of()));
+    }
+
+    @Test
+    public void readsRetryAfterAsHttpDate()
+    {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        long millis = RetryPolicy.retryAfterMillis(retryAfter(format.format(new Date(System.currentTimeMillis() + 60000L))));
+        assertTrue(String.valueOf(millis), millis > 55000L && millis <= 60000L);
+
+        assertEquals(0L, RetryPolicy.retryAfterMillis(retryAfter("Wed, 21 Oct 2015 07:28:00 GMT")));
+        assertEquals(0L, RetryPolicy.retryAfterMillis(retryAfter("not a date")));
+    }
+
+    @Test
+    public void honorsRetryAfterWithinBudget()
+    {
+        RetryPolicy policy = new RetryPolicy(RetryPolicy.Idempotency.IDEMPOTENT, 10, 1L, 2500L);
+        ApiException e = error(503, null, retryAfter("1"));
+        assertEquals(1000L, policy.nextDelayMillis(e));
+        assertEquals(1000L, policy.nextDelayMillis(e));
+        // A third delay would exceed the budget of 2500 ms.
+        assertEquals(-1L, policy.nextDelayMillis(e));
+    }
+
+    @Test
+    public void doesNotRetryBeyondBudgetOrAttempts()
+    {
+        RetryPolicy overBudget = new RetryPolicy(RetryPolicy.Idempotency.IDEMPOTENT, 10, 1L, 1000L);
+        assertEquals(-1L, overBudget.nextDelayMillis(error(429, null, retryAfter("2"))));
+
+        RetryPolicy twoAttempts = new RetryPolicy(RetryPolicy.Idempotency.IDEMPOTENT, 2, 1L, 1000L);
+        assertTrue(twoAttempts.nextDelayMillis(error(502, null, null)) >= 0L);
+        assertEquals(-1L, twoAttempts.nextDelayMillis(error(502, null, null)));
+        assertEquals(2, twoAttempts.getAttempts());
+
+        assertEquals(-1L, RetryPolicy.noRetry().nextDelayMillis(error(503, null, null)));
+    }
+
+    @Test
+    public void retriesNotIdempotentRequestsOnlyWhenNotProcessed()
+    {
+        assertTrue(notIdempotent().nextDelayMillis(error(0, new ConnectException("refused"), null)) >= 0L);
+        assertTrue(notIdempotent().nextDelayMillis(error(429, null, null)) >= 0L);
+        assertTrue(notIdempotent().nextDelayMillis(error(503, null, null)) >= 0L);
+        // The request may have been processed.
+        assertEquals(-1L, notIdempotent().nextDelayMillis(error(0, new SocketTimeoutException("read timed out"), null)));
+        assertEquals(-1L, notIdempotent().nextDelayMillis(error(502, null, null)));
+        assertEquals(-1L, notIdempotent().nextDelayMillis(error(504, null, null)));
+
+        RetryPolicy idempotent = new RetryPolicy(RetryPolicy.Idempotency.IDEMPOTENT, 3, 1L, 1000L);
+        assertTrue(idempotent.nextDelayMillis(error(0, new SocketTimeoutException("read timed out"), null)) >= 0L);
+    }
+
+    @Test
+    public void doesNotRetryClientErrors()
+    {
+        RetryPolicy policy = new RetryPolicy(RetryPolicy.Idempotency.IDEMPOTENT, 3, 1L, 1000L);
+        assertEquals(-1L, policy.nextDelayMillis(error(404, null, null)));
+    }
+
+    private static RetryPolicy notIdempotent()
+    {
+        return new RetryPolicy(RetryPolicy.Idempotency.NOT_IDEMPOTENT, 3, 1L, 1000L);
+    }
+
+    private static Map<String, List<String>> retryAfter(String value)
+    {
+        return ImmutableMap.<String, List<String>>of("Retry-After", ImmutableList.of(value));
+    }
+
+    private static ApiException error(int code, Throwable cause, Map<String, List<String>> headers)
+    {
+        return new ApiException(String.valueOf(code), cause, code, headers);
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TriglavJobTest
+{
+    private static final String URL = "http://jenkins.example.com/job/a/";
+    private static final String TIME_ZONE = "+09:00";
+
+    @Test
+    public void sameConfigurationHasSameFingerprint()
+    {
+        assertEquals(fingerprint(), fingerprint());
+        assertEquals(fingerprint(), TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, false));
+    }
+
+    @Test
+    public void resourceIdsAssignedByTriglavDoNotChangeFingerprint()
+    {
+        assertEquals(fingerprint(), TriglavJob.fingerprint(URL, resources("", "hdfs://a", "", "hdfs://b"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, false));
+    }
+
+    @Test
+    public void anyChangeSentToTriglavChangesFingerprint()
+    {
+        String original = fingerprint();
+        assertChanged(original, TriglavJob.fingerprint("http://jenkins.example.com/job/b/", resources("1", "hdfs://a", "2", "hdfs://b"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://c"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b", "3", "hdfs://c"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"),
+                "-05:00", TimeUnit.DAILY, 32L, "or", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"),
+                TIME_ZONE, TimeUnit.HOURLY, 32L, "or", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"),
+                TIME_ZONE, TimeUnit.DAILY, 7L, "or", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "and", true, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", false, false));
+        assertChanged(original, TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"),
+                TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, true));
+    }
+
+    private static void assertChanged(String original, String changed)
+    {
+        assertFalse(original.equals(changed));
+    }
+
+    private static String fingerprint()
+    {
+        return TriglavJob.fingerprint(URL, resources("1", "hdfs://a", "2", "hdfs://b"), TIME_ZONE, TimeUnit.DAILY, 32L, "or", true, false);
+    }
+
+    /**
+     * @param idsAndUris resource id and uri, alternately.
+     */
+    private static List<TriglavResourceConfig> resources(String... idsAndUris)
+    {
+        List<TriglavResourceConfig> resources = Lists.newArrayList();
+        for (int i = 0; i < idsAndUris.length; i += 2) {
+            resources.add(new TriglavResourceConfig(idsAndUris[i], idsAndUris[i + 1]));
+        }
+        return resources;
+    }
+}
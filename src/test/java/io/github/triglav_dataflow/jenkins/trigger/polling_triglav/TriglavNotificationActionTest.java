@@ -0,0 +1,142 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import com.google.common.collect.Lists;
+import hudson.model.FreeStyleProject;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+
+public class TriglavNotificationActionTest
+{
+    private static final String TOKEN = "notification-token";
+    private static final long TRIGLAV_JOB_ID = 1L;
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FakeTriglavServer triglav;
+    private FreeStyleProject project;
+
+    @Before
+    public void setUp()
+            throws Exception
+    {
+        triglav = new FakeTriglavServer(0, 4);
+        triglav.start();
+        j.jenkins.setNumExecutors(0);
+        PollingTriglavTrigger.getClassDescriptor().configure(null, globalConfiguration(triglav.apiUrl()));
+
+        project = j.createFreeStyleProject("notified");
+        PollingTriglavTrigger trigger = new PollingTriglavTrigger(
+                String.valueOf(TRIGLAV_JOB_ID), "user", "password", "LOCAL", "fake-api-key", 0L,
+                "Asia/Tokyo", "daily", "", "or", 32L,
+                Lists.newArrayList(new TriglavResourceConfig("1", "hdfs://example.com/notified")),
+                3600L, 3600L);
+        project.addTrigger(trigger);
+        trigger.start(project, true);
+        triglav.registerJob(TRIGLAV_JOB_ID);
+        TriggerRegistry.get().put(project.getFullName(), String.valueOf(TRIGLAV_JOB_ID));
+    }
+
+    @After
+    public void tearDown()
+    {
+        ItemRunner.shutdown();
+        if (triglav != null) {
+            triglav.stop();
+        }
+    }
+
+    @Test
+    public void enqueuesOneBuildForValidNotification()
+            throws Exception
+    {
+        triglav.publish(TRIGLAV_JOB_ID, System.currentTimeMillis() / 1000L, "+09:00");
+
+        assertEquals(HttpURLConnection.HTTP_ACCEPTED, notify(TOKEN, String.valueOf(TRIGLAV_JOB_ID)));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (j.jenkins.getQueue().getItems().length < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        // Give a duplicated polling a chance to enqueue another build.
+        Thread.sleep(500L);
+        assertEquals(1, j.jenkins.getQueue().getItems().length);
+        assertEquals(project, j.jenkins.getQueue().getItems()[0].task);
+        assertEquals(1L, triglav.consumedMessages());
+    }
+
+    @Test
+    public void rejectsWrongOrMissingToken()
+            throws Exception
+    {
+        assertEquals(HttpURLConnection.HTTP_FORBIDDEN, notify("wrong-token", String.valueOf(TRIGLAV_JOB_ID)));
+        assertEquals(HttpURLConnection.HTTP_FORBIDDEN, notify(null, String.valueOf(TRIGLAV_JOB_ID)));
+        assertEquals(0, j.jenkins.getQueue().getItems().length);
+    }
+
+    @Test
+    public void returnsNotFoundForUnknownJob()
+            throws Exception
+    {
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, notify(TOKEN, "999"));
+    }
+
+    private int notify(String token, String triglavJobId)
+            throws Exception
+    {
+        URL url = new URL(j.getURL(), String.format("%s/notify?job_id=%s", TriglavNotificationAction.URL_NAME, triglavJobId));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            if (token != null) {
+                connection.setRequestProperty(TriglavNotificationAction.TOKEN_HEADER, token);
+            }
+            connection.setDoOutput(true);
+            connection.getOutputStream().close();
+            return connection.getResponseCode();
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    private static JSONObject globalConfiguration(String apiUrl)
+    {
+        JSONObject formData = new JSONObject();
+        formData.put("crontabSpec", "* * * * *");
+        formData.put("triglavApiUrl", apiUrl);
+        formData.put("adminUsername", "admin");
+        formData.put("adminPassword", "admin");
+        formData.put("adminApiKey", "");
+        formData.put("maxEnqueueCount", 10);
+        formData.put("pollingThreads", 4);
+        formData.put("asyncPolling", false);
+        formData.put("notificationToken", TOKEN);
+        // Long enough that only the notification polls the job during a test.
+        formData.put("minPollingIntervalSeconds", 3600);
+        formData.put("maxPollingIntervalSeconds", 3600);
+        formData.put("circuitBreakerFailureThreshold", 5);
+        formData.put("circuitBreakerOpenSeconds", 30);
+        formData.put("retryMaxAttempts", 1);
+        formData.put("retryBaseDelayMillis", 200);
+        formData.put("retryMaxTotalDelayMillis", 3000);
+        formData.put("registrationThreads", 2);
+        formData.put("cleanupTimeoutSeconds", 5);
+        formData.put("sweepIntervalMinutes", 0);
+        formData.put("saveBatchSize", 100);
+        formData.put("saveIntervalSeconds", 10);
+        formData.put("maxIdleConnections", 4);
+        formData.put("keepAliveSeconds", 300);
+        return formData;
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TriglavSweeperTest
+{
+    @Test
+    public void resolvesJobFullNameFromUrl()
+    {
+        assertEquals("name", TriglavSweeper.toJobFullName("job/name/"));
+        assertEquals("folder/a b+c", TriglavSweeper.toJobFullName("job/folder/job/a%20b+c/"));
+    }
+
+    @Test
+    public void ignoresUrlsOtherThanJobs()
+    {
+        assertNull(TriglavSweeper.toJobFullName(""));
+        assertNull(TriglavSweeper.toJobFullName("view/all/"));
+        assertNull(TriglavSweeper.toJobFullName("job/name/ws/"));
+        assertNull(TriglavSweeper.toJobFullName("job//"));
+    }
+}
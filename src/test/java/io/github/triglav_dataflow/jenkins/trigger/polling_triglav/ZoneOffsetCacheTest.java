@@ -0,0 +1,68 @@
+package io.github.triglav_dataflow.jenkins.trigger.polling_triglav;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class ZoneOffsetCacheTest
+{
+    private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+    private static final long JAN_15_2017 = 1484438400000L; // 2017-01-15T00:00:00Z
+    private static final long JUN_01_2017 = 1496275200000L; // 2017-06-01T00:00:00Z
+
+    @Test
+    public void findsTransitionsOfNewYork()
+    {
+        long dstStart = 1489302000000L; // 2017-03-12T07:00:00Z, 02:00 EST
+        long dstEnd = 1509861600000L; // 2017-11-05T06:00:00Z, 02:00 EDT
+        assertTransition("America/New_York", JAN_15_2017, dstStart, "-05:00", "-04:00");
+        assertTransition("America/New_York", JUN_01_2017, dstEnd, "-04:00", "-05:00");
+    }
+
+    @Test
+    public void findsTransitionsOfLondon()
+    {
+        long dstStart = 1490490000000L; // 2017-03-26T01:00:00Z
+        long dstEnd = 1509238800000L; // 2017-10-29T01:00:00Z
+        assertTransition("Europe/London", JAN_15_2017, dstStart, "Z", "+01:00");
+        assertTransition("Europe/London", JUN_01_2017, dstEnd, "+01:00", "Z");
+    }
+
+    @Test
+    public void findsTransitionWithinADay()
+    {
+        long dstStart = 1489302000000L;
+        assertTransition("America/New_York", dstStart - 60000L, dstStart, "-05:00", "-04:00");
+    }
+
+    @Test
+    public void checksZonesWithoutTransitionsAgainAfterLimit()
+    {
+        TimeZone tokyo = TimeZone.getTimeZone("Asia/Tokyo");
+        assertEquals(JAN_15_2017 + 366L * DAY_MILLIS,
+                ZoneOffsetCache.nextTransitionMillis(tokyo, tokyo.getOffset(JAN_15_2017), JAN_15_2017));
+        assertEquals("+09:00", ZoneOffsetCache.offset("Asia/Tokyo", JAN_15_2017));
+    }
+
+    @Test
+    public void formatsOffsets()
+    {
+        assertEquals("+05:30", ZoneOffsetCache.format(TimeZone.getTimeZone("Asia/Kolkata").getOffset(JAN_15_2017)));
+        assertEquals("+05:30", ZoneOffsetCache.offset("Asia/Kolkata", JAN_15_2017));
+        assertEquals("-03:30", ZoneOffsetCache.format(-(3 * 60 + 30) * 60000));
+        assertEquals("+09:00", ZoneOffsetCache.format(9 * 60 * 60000));
+        assertEquals("Z", ZoneOffsetCache.format(0));
+    }
+
+    private static void assertTransition(String zoneID, long nowMillis, long transitionMillis, String before, String after)
+    {
+        TimeZone timeZone = TimeZone.getTimeZone(zoneID);
+        assertEquals(transitionMillis, ZoneOffsetCache.nextTransitionMillis(timeZone, timeZone.getOffset(nowMillis), nowMillis));
+        // The cached offset is recomputed once the transition has passed.
+        assertEquals(before, ZoneOffsetCache.offset(zoneID, nowMillis));
+        assertEquals(before, ZoneOffsetCache.offset(zoneID, transitionMillis - 1L));
+        assertEquals(after, ZoneOffsetCache.offset(zoneID, transitionMillis));
+    }
+}